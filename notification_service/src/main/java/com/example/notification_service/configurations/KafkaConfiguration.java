@@ -0,0 +1,117 @@
+package com.example.notification_service.configurations;
+
+import com.example.notification_service.services.OriginPartitionKeyStrategy;
+import com.example.notification_service.services.PartitionKeyStrategy;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+
+/**
+ * Configuration for Kafka topics and record keys.
+ */
+@Configuration
+public class KafkaConfiguration {
+
+    public static final String WORKER_TOPIC = "worker_topic";
+    public static final String SUBSCRIPTION_FEEDBACK_TOPIC = "subscription_feedback_topic";
+    public static final String SUBSCRIPTIONS_CHANGELOG_TOPIC = "subscriptions_changelog";
+    public static final String DELIVERY_REPORT_TOPIC = "delivery_report_topic";
+
+    /**
+     * Provisions the worker topic instead of relying on broker auto-creation,
+     * so its partition count matches the worker listener concurrency.
+     *
+     * @param partitions the number of partitions
+     * @param replicas   the replication factor
+     * @return the topic definition picked up by {@code KafkaAdmin}
+     */
+    @Bean
+    public NewTopic workerTopic(
+            @Value("${kafka.topics.worker.partitions:60}") int partitions,
+            @Value("${kafka.topics.worker.replicas:1}") short replicas) {
+        return TopicBuilder.name(WORKER_TOPIC)
+                .partitions(partitions)
+                .replicas(replicas)
+                .build();
+    }
+
+    /**
+     * Provisions the topic that the worker reports expired subscriptions to.
+     *
+     * @param partitions the number of partitions
+     * @param replicas   the replication factor
+     * @return the topic definition picked up by {@code KafkaAdmin}
+     */
+    @Bean
+    public NewTopic subscriptionFeedbackTopic(
+            @Value("${kafka.topics.feedback.partitions:6}") int partitions,
+            @Value("${kafka.topics.feedback.replicas:1}") short replicas) {
+        return TopicBuilder.name(SUBSCRIPTION_FEEDBACK_TOPIC)
+                .partitions(partitions)
+                .replicas(replicas)
+                .build();
+    }
+
+    /**
+     * Provisions the topic that the worker reports delivery outcomes of
+     * notification jobs to.
+     *
+     * @param partitions the number of partitions
+     * @param replicas   the replication factor
+     * @return the topic definition picked up by {@code KafkaAdmin}
+     */
+    @Bean
+    public NewTopic deliveryReportTopic(
+            @Value("${kafka.topics.delivery-report.partitions:6}") int partitions,
+            @Value("${kafka.topics.delivery-report.replicas:1}") short replicas) {
+        return TopicBuilder.name(DELIVERY_REPORT_TOPIC)
+                .partitions(partitions)
+                .replicas(replicas)
+                .build();
+    }
+
+    /**
+     * Provisions the log-compacted topic that subscriber inserts and deletes
+     * are published to.
+     *
+     * @param partitions the number of partitions
+     * @param replicas   the replication factor
+     * @return the topic definition picked up by {@code KafkaAdmin}
+     */
+    @Bean
+    public NewTopic subscriptionsChangelogTopic(
+            @Value("${kafka.topics.changelog.partitions:6}") int partitions,
+            @Value("${kafka.topics.changelog.replicas:1}") short replicas) {
+        return TopicBuilder.name(SUBSCRIPTIONS_CHANGELOG_TOPIC)
+                .partitions(partitions)
+                .replicas(replicas)
+                .compact()
+                .build();
+    }
+
+    /**
+     * Selects how worker topic records are keyed:
+     * <ul>
+     *     <li>{@code subscription} - by subscriber, keeps pushes to one device in order;</li>
+     *     <li>{@code origin} - by push-service origin, for connection reuse and per-host limits;</li>
+     *     <li>{@code producer} - by producer, for per-producer fairness accounting;</li>
+     *     <li>{@code none} - no key, records are spread across partitions.</li>
+     * </ul>
+     *
+     * @param partitionKey the strategy name
+     * @return the partition key strategy
+     */
+    @Bean
+    public PartitionKeyStrategy partitionKeyStrategy(
+            @Value("${notification.kafka.partition-key:subscription}") String partitionKey) {
+        return switch (partitionKey) {
+            case "subscription" -> recipient -> String.valueOf(recipient.getId());
+            case "origin" -> new OriginPartitionKeyStrategy();
+            case "producer" -> recipient -> String.valueOf(recipient.getProducerId());
+            case "none" -> recipient -> null;
+            default -> throw new IllegalArgumentException("Unknown partition key strategy: " + partitionKey);
+        };
+    }
+}
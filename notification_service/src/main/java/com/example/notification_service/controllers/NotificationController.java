@@ -1,26 +1,20 @@
 package com.example.notification_service.controllers;
 
-import com.example.notification_service.models.NotificationProducer;
+import com.example.notification_service.models.NotificationJob;
 import com.example.notification_service.models.NotificationRequestDTO;
-import com.example.notification_service.models.NotificationSendDTO;
-import com.example.notification_service.models.NotificationSubscriber;
-import com.example.notification_service.repositories.ProducerRepository;
-import com.example.notification_service.repositories.SubscriberRepository;
-import com.example.notification_service.services.NotificationPushService;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.notification_service.services.NotificationJobService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.util.Arrays;
-import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Controller for handling notification sending operations.
@@ -28,61 +22,46 @@ import java.util.stream.Collectors;
 @RestController
 public class NotificationController {
 
-    private final ProducerRepository producerRepository;
-    private final SubscriberRepository subscriberRepository;
-    private final NotificationPushService pushService;
+    private final NotificationJobService jobService;
 
     @Autowired
-    public NotificationController(
-            ProducerRepository producerRepository,
-            SubscriberRepository subscriberRepository,
-            ObjectMapper mapper,
-            NotificationPushService pushService) {
-        this.producerRepository = producerRepository;
-        this.subscriberRepository = subscriberRepository;
-        this.pushService = pushService;
+    public NotificationController(NotificationJobService jobService) {
+        this.jobService = jobService;
     }
 
     /**
-     * Sends notifications to subscribers matching the provided names.
+     * Accepts a notification to subscribers matching the provided names. The
+     * notification is sent in the background; its progress is available from
+     * {@link #status(String, String)} under the returned job ID.
      *
      * @param dto the notification request containing message and subscriber names
      * @param id  the producer ID
-     * @return response with success status
-     * @throws JsonProcessingException if JSON processing fails
+     * @return 202 with the job ID, or 503 if too many jobs are waiting
      */
     @PostMapping("/notificate")
     public ResponseEntity<Map<String, String>> notificate(
             @RequestBody NotificationRequestDTO dto,
-            @RequestParam("id") String id) throws JsonProcessingException {
-
-        Optional<NotificationProducer> optional = producerRepository.findByProviderId(id);
-
-        if (optional.isPresent()) {
-            NotificationProducer producer = optional.get();
-            List<NotificationSubscriber> subscribers = subscriberRepository.getAllByProducer(producer);
-            List<NotificationSubscriber> filteredSubscribers = filterSubscribersByName(
-                    subscribers, dto.getNames());
-
-            List<NotificationSendDTO> toSend = filteredSubscribers.stream()
-                    .map(subscriber -> new NotificationSendDTO(
-                            subscriber.getSubscriptionJson(),
-                            dto.getMessage()))
-                    .collect(Collectors.toList());
-
-            if (!toSend.isEmpty()) {
-                pushService.sendNotifications(toSend);
-            }
+            @RequestParam("id") String id) {
+        try {
+            NotificationJob job = jobService.submit(id, dto);
+            return ResponseEntity.accepted().body(Map.of("status", "accepted", "jobId", job.getId()));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("status", "too many notifications in progress"));
         }
-
-        return ResponseEntity.ok(Map.of("status", "successfully sent to all available users"));
     }
 
-    private List<NotificationSubscriber> filterSubscribersByName(
-            List<NotificationSubscriber> subscribers, String[] names) {
-        List<String> nameList = Arrays.asList(names);
-        return subscribers.stream()
-                .filter(subscriber -> nameList.contains(subscriber.getName()))
-                .collect(Collectors.toList());
+    /**
+     * Reports the progress of a notification job.
+     *
+     * @param jobId the job ID returned by {@link #notificate(NotificationRequestDTO, String)}
+     * @param id    the producer ID
+     * @return the job, or 404 if there is no such job of the producer
+     */
+    @GetMapping("/notificate/{jobId}")
+    public ResponseEntity<NotificationJob> status(
+            @PathVariable("jobId") String jobId,
+            @RequestParam("id") String id) {
+        return ResponseEntity.of(jobService.find(jobId, id));
     }
 }
@@ -4,12 +4,12 @@ import com.example.notification_service.models.BasicUser;
 import com.example.notification_service.models.NotificationProducer;
 import com.example.notification_service.models.NotificationSubscriber;
 import com.example.notification_service.models.OAuthUser;
-import com.example.notification_service.repositories.ProducerRepository;
+import com.example.notification_service.models.SubscriptionDTO;
 import com.example.notification_service.repositories.SubscriberRepository;
 import com.example.notification_service.services.NotificationPushService;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import nl.martijndwars.webpush.Subscription;
+import com.example.notification_service.services.ProducerService;
+import com.example.notification_service.services.SubscriptionBackfillService;
+import com.example.notification_service.services.SubscriptionChangelogService;
 import org.jose4j.lang.JoseException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -24,6 +24,8 @@ import org.springframework.web.bind.annotation.RestController;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
@@ -35,21 +37,24 @@ import java.util.concurrent.ExecutionException;
 @RestController
 public class SubscriptionController {
 
-    private final ProducerRepository producerRepository;
+    private final ProducerService producerService;
     private final SubscriberRepository subscriberRepository;
     private final NotificationPushService pushService;
-    private final ObjectMapper mapper;
+    private final SubscriptionChangelogService changelogService;
+    private final SubscriptionBackfillService backfillService;
 
     @Autowired
     public SubscriptionController(
-            ProducerRepository producerRepository,
+            ProducerService producerService,
             SubscriberRepository subscriberRepository,
             NotificationPushService pushService,
-            ObjectMapper mapper) {
-        this.producerRepository = producerRepository;
+            SubscriptionChangelogService changelogService,
+            SubscriptionBackfillService backfillService) {
+        this.producerService = producerService;
         this.subscriberRepository = subscriberRepository;
         this.pushService = pushService;
-        this.mapper = mapper;
+        this.changelogService = changelogService;
+        this.backfillService = backfillService;
     }
 
     /**
@@ -73,10 +78,10 @@ public class SubscriptionController {
         Object principal = authentication.getPrincipal();
 
         if (principal instanceof OAuthUser oAuthUser) {
-            ensureProducerExists(oAuthUser.getProviderId());
+            producerService.ensureExists(oAuthUser.getProviderId());
             return ResponseEntity.ok(Map.of("id", oAuthUser.getProviderId()));
         } else if (principal instanceof BasicUser basicUser) {
-            ensureProducerExists(basicUser.getUsername());
+            producerService.ensureExists(basicUser.getUsername());
             return ResponseEntity.ok(Map.of("id", basicUser.getUsername()));
         }
 
@@ -84,7 +89,8 @@ public class SubscriptionController {
     }
 
     /**
-     * Saves a push notification subscription for a user.
+     * Saves a push notification subscription for a user. A subscription with
+     * the same push endpoint as a saved one of the user replaces it.
      *
      * @param subscription the Web Push subscription object
      * @param id           the producer ID
@@ -98,22 +104,44 @@ public class SubscriptionController {
      */
     @PostMapping("/save-subscription/{id}")
     public ResponseEntity<String> saveSubscription(
-            @RequestBody Subscription subscription,
+            @RequestBody SubscriptionDTO subscription,
             @PathVariable("id") String id,
             @RequestParam String name)
             throws IOException, JoseException, GeneralSecurityException, ExecutionException, InterruptedException {
 
-        Optional<NotificationProducer> optional = producerRepository.findByProviderId(id);
-        pushService.send(subscription);
+        if (subscription.getEndpoint() == null || subscription.getKeys() == null) {
+            return ResponseEntity.badRequest().body("invalid subscription");
+        }
+        byte[] p256dh;
+        byte[] auth;
+        try {
+            p256dh = subscription.decodeP256dh();
+            auth = subscription.decodeAuth();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("invalid subscription");
+        }
 
-        if (optional.isPresent() && name != null && !name.isEmpty()) {
-            NotificationProducer producer = optional.get();
+        Optional<Long> producerId = producerService.findId(id);
+        pushService.send(subscription.toSubscription());
 
+        if (producerId.isPresent() && name != null && !name.isEmpty()) {
             NotificationSubscriber subscriber = new NotificationSubscriber();
-            subscriber.setProducer(producer);
+            subscriber.setProducer(NotificationProducer.builder().id(producerId.get()).providerId(id).build());
             subscriber.setName(name);
-            subscriber.setSubscriptionJson(mapper.writeValueAsString(subscription));
-            subscriberRepository.save(subscriber);
+            subscriber.setEndpoint(subscription.getEndpoint());
+            subscriber.setP256dh(p256dh);
+            subscriber.setAuth(auth);
+            subscriber.setExpirationTime(subscription.getExpirationTime());
+            subscriber.setEndpointHash(NotificationSubscriber.hashEndpoint(subscription.getEndpoint()));
+            subscriber.setId(subscriberRepository.upsert(
+                    producerId.get(),
+                    name,
+                    subscriber.getEndpoint(),
+                    subscriber.getP256dh(),
+                    subscriber.getAuth(),
+                    subscriber.getExpirationTime(),
+                    subscriber.getEndpointHash()));
+            changelogService.publishSaved(subscriber);
 
             return ResponseEntity.ok("saved");
         }
@@ -122,27 +150,22 @@ public class SubscriptionController {
     }
 
     /**
-     * Removes a push notification subscription.
+     * Removes a push notification subscription from every producer, looked up
+     * by the hash of its push endpoint, and from the subscribers that are not
+     * migrated to the endpoint hash yet.
      *
      * @param subscription the subscription to remove
      * @return response indicating success
-     * @throws JsonProcessingException if JSON processing fails
      */
     @PostMapping("/unsubscribe")
-    public ResponseEntity<String> unsubscribe(@RequestBody Subscription subscription)
-            throws JsonProcessingException {
-        String subscriptionJson = mapper.writeValueAsString(subscription);
-        Optional<NotificationSubscriber> optional = subscriberRepository.findBySubscriptionJson(subscriptionJson);
-        optional.ifPresent(subscriberRepository::delete);
-        return ResponseEntity.ok("deleted");
-    }
-
-    private void ensureProducerExists(String providerId) {
-        if (producerRepository.findByProviderId(providerId).isEmpty()) {
-            NotificationProducer producer = NotificationProducer.builder()
-                    .providerId(providerId)
-                    .build();
-            producerRepository.save(producer);
+    public ResponseEntity<String> unsubscribe(@RequestBody SubscriptionDTO subscription) {
+        if (subscription.getEndpoint() != null) {
+            // Unmigrated subscribers first: one the backfill migrates meanwhile is then deleted by its hash.
+            List<Long> subscriberIds = new ArrayList<>(backfillService.deleteUnmigrated(subscription.getEndpoint()));
+            subscriberIds.addAll(subscriberRepository.deleteByEndpointHash(
+                    NotificationSubscriber.hashEndpoint(subscription.getEndpoint())));
+            changelogService.publishDeleted(subscriberIds);
         }
+        return ResponseEntity.ok("deleted");
     }
 }
@@ -0,0 +1,16 @@
+package com.example.notification_service.models;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class DeliveryReport {
+    String jobId;
+    long delivered;
+    long failed;
+    long expired;
+}
@@ -0,0 +1,59 @@
+package com.example.notification_service.models;
+
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of one {@code /notificate} request. Counts are per recipient:
+ * queued and published count worker topic records handed to and acknowledged
+ * by Kafka, delivered, failed and expired count the final push outcomes that
+ * workers report back. Records that could not be published count as failed.
+ */
+@Getter
+public class NotificationJob {
+
+    public enum Status {
+        QUEUED, PUBLISHING, PUBLISHED, COMPLETED, FAILED
+    }
+
+    private final String id;
+    @JsonIgnore
+    private final String producerId;
+    private final Instant createdAt = Instant.now();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    @Setter
+    private volatile Status status = Status.QUEUED;
+
+    @Setter
+    private volatile long recipients;
+
+    @Setter
+    private volatile String error;
+
+    public NotificationJob(String id, String producerId) {
+        this.id = id;
+        this.producerId = producerId;
+    }
+
+    /**
+     * @return the status, {@link Status#COMPLETED} once every published
+     * recipient has a final outcome
+     */
+    public Status getStatus() {
+        Status current = status;
+        if (current == Status.PUBLISHED && delivered.get() + failed.get() + expired.get() >= recipients) {
+            return Status.COMPLETED;
+        }
+        return current;
+    }
+}
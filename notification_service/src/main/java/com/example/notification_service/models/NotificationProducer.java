@@ -8,11 +8,11 @@ import java.util.List;
 import java.util.Objects;
 
 @Entity
-@Table(name = "producer")
+@Table(name = "producer",
+        indexes = @Index(name = "idx_producer_provider_id", columnList = "provider_id", unique = true))
 @Getter
 @Setter
 @ToString
-@RequiredArgsConstructor
 @Builder
 @AllArgsConstructor
 @NoArgsConstructor
@@ -0,0 +1,22 @@
+package com.example.notification_service.models;
+
+/**
+ * Read-only view of a subscriber with only the columns that publishing a
+ * notification needs.
+ */
+public interface NotificationRecipient extends RecipientKey {
+
+    Long getProducerId();
+
+    String getEndpoint();
+
+    byte[] getP256dh();
+
+    byte[] getAuth();
+
+    /**
+     * @return the subscription JSON of a subscriber that is not migrated to
+     * the subscription columns yet, otherwise null
+     */
+    String getSubscriptionJson();
+}
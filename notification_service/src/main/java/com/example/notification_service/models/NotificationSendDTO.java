@@ -9,6 +9,7 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 @Data
 public class NotificationSendDTO {
+    Long subscriberId;
     String subscriptionJson;
     String message;
 }
@@ -5,9 +5,17 @@ import jakarta.persistence.*;
 import lombok.*;
 import org.hibernate.proxy.HibernateProxy;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Objects;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_notification_subscriber_producer_name", columnList = "producer_id, name, id"),
+        @Index(name = "idx_notification_subscriber_endpoint_hash_producer",
+                columnList = "endpoint_hash, producer_id", unique = true)
+})
 @Getter
 @Setter
 @ToString
@@ -20,13 +28,60 @@ public class NotificationSubscriber {
     private String name;
 
     @Column(columnDefinition = "TEXT")
+    private String endpoint;
+
+    /**
+     * The raw P-256 public key of the subscription.
+     */
+    @Column(length = 65)
+    @ToString.Exclude
+    private byte[] p256dh;
+
+    /**
+     * The raw auth secret of the subscription.
+     */
+    @Column(length = 16)
+    @ToString.Exclude
+    private byte[] auth;
+
+    private Long expirationTime;
+
+    /**
+     * The whole subscription of subscribers saved before it was stored in
+     * columns, cleared once {@code SubscriptionBackfillService} has migrated it.
+     */
+    @Column(columnDefinition = "TEXT")
+    @JsonIgnore
     private String subscriptionJson;
 
+    /**
+     * SHA-256 of the push endpoint, which identifies the subscription of a
+     * producer. A browser has the same endpoint for every producer.
+     */
+    @Column(length = 32)
+    @JsonIgnore
+    @ToString.Exclude
+    private byte[] endpointHash;
+
     @ManyToOne
     @JoinColumn(name = "producer_id", nullable = false)
     @JsonIgnore
     private NotificationProducer producer;
 
+    /**
+     * Hashes a push endpoint the way {@link #getEndpointHash()} stores it.
+     *
+     * @param endpoint the push endpoint URL
+     * @return the SHA-256 of the endpoint's UTF-8 bytes
+     */
+    public static byte[] hashEndpoint(String endpoint) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(endpoint.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Override
     public final boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,12 @@
+package com.example.notification_service.models;
+
+/**
+ * Position of a recipient in the {@code (name, id)} order that recipient
+ * pages are keyset-paginated in.
+ */
+public interface RecipientKey {
+
+    Long getId();
+
+    String getName();
+}
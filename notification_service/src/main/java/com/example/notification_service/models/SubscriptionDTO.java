@@ -0,0 +1,48 @@
+package com.example.notification_service.models;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import nl.martijndwars.webpush.Base64Encoder;
+import nl.martijndwars.webpush.Subscription;
+
+/**
+ * A browser push subscription, as produced by {@code PushSubscription.toJSON()}.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class SubscriptionDTO {
+    private String endpoint;
+    private Long expirationTime;
+    private Keys keys;
+
+    @AllArgsConstructor
+    @NoArgsConstructor
+    @Data
+    public static class Keys {
+        private String p256dh;
+        private String auth;
+    }
+
+    /**
+     * @return the raw p256dh key
+     * @throws IllegalArgumentException if the key is not valid base64
+     */
+    public byte[] decodeP256dh() {
+        return Base64Encoder.decode(keys.p256dh);
+    }
+
+    /**
+     * @return the raw auth secret
+     * @throws IllegalArgumentException if the secret is not valid base64
+     */
+    public byte[] decodeAuth() {
+        return Base64Encoder.decode(keys.auth);
+    }
+
+    public Subscription toSubscription() {
+        return new Subscription(endpoint, new Subscription.Keys(keys.p256dh, keys.auth));
+    }
+}
@@ -2,10 +2,100 @@ package com.example.notification_service.repositories;
 
 import com.example.notification_service.models.NotificationProducer;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
 
 public interface ProducerRepository extends JpaRepository<NotificationProducer, Long> {
-        Optional<NotificationProducer> findByProviderId(String id);
+
+    @Query("SELECT p.id FROM NotificationProducer p WHERE p.providerId = :providerId")
+    Optional<Long> findIdByProviderId(@Param("providerId") String providerId);
+
+    /**
+     * Inserts a producer unless one with the provider ID exists, in one statement.
+     *
+     * @param providerId the provider ID
+     * @return the ID of the inserted or existing producer, empty if the existing
+     * producer was inserted concurrently after the statement started
+     */
+    @Transactional
+    @Query(value = """
+            WITH inserted AS (
+                INSERT INTO producer (id, provider_id)
+                VALUES (nextval('producer_seq'), :providerId)
+                ON CONFLICT (provider_id) DO NOTHING
+                RETURNING id
+            )
+            SELECT id FROM inserted
+            UNION ALL
+            SELECT id FROM producer WHERE provider_id = :providerId
+            LIMIT 1
+            """, nativeQuery = true)
+    Optional<Long> insertIfAbsent(@Param("providerId") String providerId);
+
+    /**
+     * Deletes the subscribers that would have the endpoint of another
+     * subscriber once the subscribers of duplicate producers are moved to the
+     * first producer. Of the subscribers of a provider ID with the same
+     * endpoint hash only the most recently saved one, the one with the highest
+     * ID, is kept.
+     *
+     * @return the IDs of the deleted subscribers
+     */
+    @Transactional
+    @Query(value = """
+            WITH duplicated AS (
+                SELECT id, provider_id
+                FROM (SELECT id, provider_id, COUNT(*) OVER (PARTITION BY provider_id) AS copies FROM producer) c
+                WHERE copies > 1
+            ), ranked AS (
+                SELECT s.id,
+                    ROW_NUMBER() OVER (PARTITION BY d.provider_id, s.endpoint_hash ORDER BY s.id DESC) AS position
+                FROM notification_subscriber s
+                JOIN duplicated d ON d.id = s.producer_id
+                WHERE s.endpoint_hash IS NOT NULL
+            )
+            DELETE FROM notification_subscriber s
+            USING ranked r
+            WHERE s.id = r.id AND r.position > 1
+            RETURNING s.id
+            """, nativeQuery = true)
+    List<Long> deleteDuplicateSubscribersOfDuplicates();
+
+    /**
+     * Moves the subscribers of duplicate producers to the first producer with
+     * the same provider ID.
+     *
+     * @return the number of moved subscribers
+     */
+    @Modifying
+    @Query(value = """
+            UPDATE notification_subscriber s
+            SET producer_id = d.first_id
+            FROM (SELECT id, MIN(id) OVER (PARTITION BY provider_id) AS first_id FROM producer) d
+            WHERE s.producer_id = d.id AND d.id <> d.first_id
+            """, nativeQuery = true)
+    int moveSubscribersOfDuplicates();
+
+    /**
+     * Deletes the producers with the provider ID of a producer created before them.
+     *
+     * @return the number of deleted producers
+     */
+    @Modifying
+    @Query(value = """
+            DELETE FROM producer p
+            USING producer first
+            WHERE first.provider_id = p.provider_id AND first.id < p.id
+            """, nativeQuery = true)
+    int deleteDuplicates();
+
+    @Modifying
+    @Query(value = "CREATE UNIQUE INDEX IF NOT EXISTS idx_producer_provider_id ON producer (provider_id)",
+            nativeQuery = true)
+    void createProviderIdIndex();
 }
@@ -1,13 +1,258 @@
 package com.example.notification_service.repositories;
 
-import com.example.notification_service.models.NotificationProducer;
+import com.example.notification_service.models.NotificationRecipient;
 import com.example.notification_service.models.NotificationSubscriber;
+import com.example.notification_service.models.RecipientKey;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 public interface SubscriberRepository extends JpaRepository<NotificationSubscriber, Long> {
-    Optional<NotificationSubscriber> findBySubscriptionJson(String subscription);
-    ArrayList<NotificationSubscriber> getAllByProducer(NotificationProducer producer);
+    /**
+     * Inserts a subscriber, or updates the subscriber of the producer with the
+     * same endpoint hash, so a browser that subscribes to a producer again
+     * keeps a single row. A browser subscribed to several producers has the
+     * same endpoint, and a row, for each of them.
+     *
+     * @param producerId     the producer ID
+     * @param name           the subscriber name
+     * @param endpoint       the push endpoint
+     * @param p256dh         the raw p256dh key
+     * @param auth           the raw auth secret
+     * @param expirationTime the expiration time in epoch milliseconds, or null
+     * @param endpointHash   the hash of the push endpoint
+     * @return the ID of the inserted or updated subscriber
+     */
+    @Transactional
+    @Query(value = """
+            INSERT INTO notification_subscriber
+                (id, producer_id, name, endpoint, p256dh, auth, expiration_time, endpoint_hash)
+            VALUES (nextval('notification_subscriber_seq'),
+                :producerId, :name, :endpoint, :p256dh, :auth, :expirationTime, :endpointHash)
+            ON CONFLICT (producer_id, endpoint_hash) DO UPDATE
+            SET name = EXCLUDED.name,
+                endpoint = EXCLUDED.endpoint,
+                p256dh = EXCLUDED.p256dh,
+                auth = EXCLUDED.auth,
+                expiration_time = EXCLUDED.expiration_time,
+                subscription_json = NULL
+            RETURNING id
+            """, nativeQuery = true)
+    Long upsert(
+            @Param("producerId") Long producerId,
+            @Param("name") String name,
+            @Param("endpoint") String endpoint,
+            @Param("p256dh") byte[] p256dh,
+            @Param("auth") byte[] auth,
+            @Param("expirationTime") Long expirationTime,
+            @Param("endpointHash") byte[] endpointHash);
+
+    /**
+     * Deletes the subscribers of every producer with the given endpoint hash,
+     * using the unique index, which starts with the endpoint hash.
+     *
+     * @param endpointHash the hash of the subscription's push endpoint
+     * @return the IDs of the deleted subscribers
+     */
+    @Transactional
+    @Query(value = "DELETE FROM notification_subscriber WHERE endpoint_hash = :endpointHash RETURNING id",
+            nativeQuery = true)
+    List<Long> deleteByEndpointHash(@Param("endpointHash") byte[] endpointHash);
+
+    @Query(value = """
+            SELECT s.id FROM notification_subscriber s
+            WHERE s.endpoint_hash = :endpointHash AND s.producer_id = :producerId
+            """, nativeQuery = true)
+    Optional<Long> findIdByEndpointHash(
+            @Param("producerId") Long producerId,
+            @Param("endpointHash") byte[] endpointHash);
+
+    /**
+     * Selects the subscribers saved as subscription JSON that contains the
+     * given text, to find the ones with a push endpoint before they are
+     * migrated. The JSON is not parsed, so the caller checks the endpoint.
+     *
+     * @param text the text to look for, such as a push endpoint
+     * @return the unmigrated subscribers whose subscription JSON contains the text
+     */
+    @Query(value = """
+            SELECT s.id AS "id", s.name AS "name", s.producer_id AS "producerId",
+                s.subscription_json AS "subscriptionJson"
+            FROM notification_subscriber s
+            WHERE s.endpoint IS NULL AND s.subscription_json IS NOT NULL
+                AND strpos(s.subscription_json, :text) > 0
+            """, nativeQuery = true)
+    List<NotificationRecipient> findUnmigratedContaining(@Param("text") String text);
+
+    /**
+     * Selects a page of the subscribers saved as subscription JSON, before
+     * the subscription columns existed, keyset-paginated by ID.
+     *
+     * @param afterId the last ID of the previous page, 0 for the first page
+     * @param limit   the page size
+     * @return the subscribers to migrate, ordered by ID
+     */
+    @Query(value = """
+            SELECT s.id AS "id", s.name AS "name", s.producer_id AS "producerId",
+                s.subscription_json AS "subscriptionJson"
+            FROM notification_subscriber s
+            WHERE s.endpoint IS NULL AND s.subscription_json IS NOT NULL AND s.id > :afterId
+            ORDER BY s.id
+            LIMIT :limit
+            """, nativeQuery = true)
+    List<NotificationRecipient> findUnmigrated(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    /**
+     * Selects a page of the subscribers migrated to the subscription columns,
+     * keyset-paginated by ID, with only the columns the subscriptions
+     * changelog needs.
+     *
+     * @param afterId the last ID of the previous page, 0 for the first page
+     * @param limit   the page size
+     * @return the subscribers, ordered by ID
+     */
+    @Query(value = """
+            SELECT s.id AS "id", s.name AS "name", s.producer_id AS "producerId",
+                s.endpoint AS "endpoint", s.p256dh AS "p256dh", s.auth AS "auth",
+                s.subscription_json AS "subscriptionJson"
+            FROM notification_subscriber s
+            WHERE s.endpoint IS NOT NULL AND s.id > :afterId
+            ORDER BY s.id
+            LIMIT :limit
+            """, nativeQuery = true)
+    List<NotificationRecipient> findMigrated(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    /**
+     * Moves a subscriber's subscription from its JSON into the subscription columns.
+     *
+     * @return the number of updated rows
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            UPDATE notification_subscriber
+            SET endpoint = :endpoint,
+                p256dh = :p256dh,
+                auth = :auth,
+                expiration_time = :expirationTime,
+                endpoint_hash = :endpointHash,
+                subscription_json = NULL
+            WHERE id = :id
+            """, nativeQuery = true)
+    int migrate(
+            @Param("id") Long id,
+            @Param("endpoint") String endpoint,
+            @Param("p256dh") byte[] p256dh,
+            @Param("auth") byte[] auth,
+            @Param("expirationTime") Long expirationTime,
+            @Param("endpointHash") byte[] endpointHash);
+
+    /**
+     * @param name the index name
+     * @return true if the subscriber table has an index with the name,
+     * including the index of a unique constraint
+     */
+    @Query(value = """
+            SELECT EXISTS (SELECT 1 FROM pg_indexes
+                WHERE schemaname = current_schema() AND tablename = 'notification_subscriber' AND indexname = :name)
+            """, nativeQuery = true)
+    boolean existsIndex(@Param("name") String name);
+
+    /**
+     * @param name the constraint name
+     * @return true if the subscriber table has a constraint with the name
+     */
+    @Query(value = """
+            SELECT EXISTS (SELECT 1 FROM pg_constraint
+                WHERE conrelid = CAST('notification_subscriber' AS regclass) AND conname = :name)
+            """, nativeQuery = true)
+    boolean existsConstraint(@Param("name") String name);
+
+    /**
+     * Drops the unique constraint on the endpoint hash alone, which Hibernate
+     * created in databases from before the endpoint hash was unique per producer.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+            ALTER TABLE notification_subscriber
+            DROP CONSTRAINT IF EXISTS idx_notification_subscriber_endpoint_hash
+            """, nativeQuery = true)
+    void dropEndpointHashConstraint();
+
+    @Transactional
+    @Modifying
+    @Query(value = "DROP INDEX IF EXISTS idx_notification_subscriber_endpoint_hash", nativeQuery = true)
+    void dropEndpointHashIndex();
+
+    @Transactional
+    @Modifying
+    @Query(value = """
+            CREATE UNIQUE INDEX IF NOT EXISTS idx_notification_subscriber_endpoint_hash_producer
+            ON notification_subscriber (endpoint_hash, producer_id)
+            """, nativeQuery = true)
+    void createEndpointHashProducerIndex();
+
+    /**
+     * Selects a page of the subscribers of a producer with one of the given
+     * names. The names are bound as a single array parameter. Pages are
+     * keyset-paginated in {@code (name, id)} order, the order of the
+     * {@code (producer_id, name, id)} index, so every page is read from the
+     * index without sorting: the next page starts after the name and ID of
+     * the last subscriber of the previous one.
+     *
+     * @param producerId the producer ID
+     * @param names      the subscriber names
+     * @param afterName  the name of the last subscriber of the previous page, empty for the first page
+     * @param afterId    the ID of the last subscriber of the previous page, 0 for the first page
+     * @param limit      the page size
+     * @return the matching subscribers, ordered by name and ID
+     */
+    @Query(value = """
+            SELECT s.id AS "id", s.name AS "name", s.producer_id AS "producerId",
+                s.endpoint AS "endpoint", s.p256dh AS "p256dh", s.auth AS "auth",
+                s.subscription_json AS "subscriptionJson"
+            FROM notification_subscriber s
+            WHERE s.producer_id = :producerId AND s.name = ANY(:names)
+                AND (s.name, s.id) > (:afterName, :afterId)
+            ORDER BY s.name, s.id
+            LIMIT :limit
+            """, nativeQuery = true)
+    List<NotificationRecipient> findRecipients(
+            @Param("producerId") Long producerId,
+            @Param("names") String[] names,
+            @Param("afterName") String afterName,
+            @Param("afterId") long afterId,
+            @Param("limit") int limit);
+
+    /**
+     * Selects only the IDs and names of the subscribers
+     * {@link #findRecipients(Long, String[], String, long, int)} selects.
+     *
+     * @param producerId the producer ID
+     * @param names      the subscriber names
+     * @param afterName  the name of the last subscriber of the previous page, empty for the first page
+     * @param afterId    the ID of the last subscriber of the previous page, 0 for the first page
+     * @param limit      the page size
+     * @return the keys of the matching subscribers, ordered by name and ID
+     */
+    @Query(value = """
+            SELECT s.id AS "id", s.name AS "name"
+            FROM notification_subscriber s
+            WHERE s.producer_id = :producerId AND s.name = ANY(:names)
+                AND (s.name, s.id) > (:afterName, :afterId)
+            ORDER BY s.name, s.id
+            LIMIT :limit
+            """, nativeQuery = true)
+    List<RecipientKey> findRecipientKeys(
+            @Param("producerId") Long producerId,
+            @Param("names") String[] names,
+            @Param("afterName") String afterName,
+            @Param("afterId") long afterId,
+            @Param("limit") int limit);
 }
@@ -0,0 +1,146 @@
+package com.example.notification_service.serialization;
+
+import com.example.notification_service.models.NotificationSendDTO;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Encodes the worker topic records of one notification sent to many
+ * subscribers. The message is encoded once per notification, and each record
+ * only adds its subscriber's part to the shared bytes. Records come in three
+ * formats:
+ * <ul>
+ *     <li>JSON, the fields of {@link NotificationSendDTO}.</li>
+ *     <li>Binary, for a single subscriber. All numbers are big-endian:
+ *     <pre>
+ * byte   magic (0xB7, never the first byte of a JSON record)
+ * byte   version (1)
+ * long   subscriber id
+ * short  endpoint length, endpoint UTF-8 bytes
+ * byte   p256dh length, p256dh key bytes
+ * byte   auth length, auth secret bytes
+ * int    message length, message UTF-8 bytes
+ *     </pre></li>
+ *     <li>Fan-out, for a chunk of subscribers that workers resolve against
+ *     their replicated subscription store:
+ *     <pre>
+ * byte   magic (0xB8)
+ * byte   version (1)
+ * int    message length, message UTF-8 bytes
+ * int    subscriber count
+ * long[] subscriber ids
+ *     </pre></li>
+ * </ul>
+ */
+public class NotificationBroadcastEncoder {
+
+    public static final byte SEND_MAGIC = (byte) 0xB7;
+    public static final byte FAN_OUT_MAGIC = (byte) 0xB8;
+    public static final byte VERSION = 1;
+
+    private static final int MAX_SHORT_FIELD = 0xFFFF;
+    private static final int MAX_BYTE_FIELD = 0xFF;
+    private static final byte[] JSON_SUBSCRIBER_ID = "{\"subscriberId\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_SUBSCRIPTION = ",\"subscriptionJson\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_MESSAGE = "\",\"message\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_END = "\"}".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] text;
+    private final byte[] jsonMessage;
+
+    /**
+     * @param message the notification message shared by all records
+     */
+    public NotificationBroadcastEncoder(String message) {
+        this.text = message.getBytes(StandardCharsets.UTF_8);
+        byte[] quoted = JsonStringEncoder.getInstance().quoteAsUTF8(message);
+        this.jsonMessage = ByteBuffer.allocate(JSON_MESSAGE.length + quoted.length + JSON_END.length)
+                .put(JSON_MESSAGE).put(quoted).put(JSON_END)
+                .array();
+    }
+
+    /**
+     * @param subscriberId     the subscriber ID
+     * @param subscriptionJson the subscription as stored by the browser's {@code PushSubscription.toJSON()}
+     * @return the JSON record
+     */
+    public byte[] json(long subscriberId, String subscriptionJson) {
+        byte[] id = Long.toString(subscriberId).getBytes(StandardCharsets.US_ASCII);
+        byte[] subscription = JsonStringEncoder.getInstance().quoteAsUTF8(subscriptionJson);
+        return ByteBuffer.allocate(JSON_SUBSCRIBER_ID.length + id.length
+                        + JSON_SUBSCRIPTION.length + subscription.length + jsonMessage.length)
+                .put(JSON_SUBSCRIBER_ID).put(id)
+                .put(JSON_SUBSCRIPTION).put(subscription)
+                .put(jsonMessage)
+                .array();
+    }
+
+    /**
+     * Encodes a JSON record whose subscription JSON is rebuilt from the
+     * subscription's fields, with the keys in unpadded base64url like
+     * {@code PushSubscription.toJSON()} writes them.
+     *
+     * @param subscriberId the subscriber ID
+     * @param endpoint     the push service endpoint
+     * @param p256dh       the raw p256dh key
+     * @param auth         the raw auth secret
+     * @return the JSON record
+     */
+    public byte[] json(long subscriberId, String endpoint, byte[] p256dh, byte[] auth) {
+        Base64.Encoder base64 = Base64.getUrlEncoder().withoutPadding();
+        String quotedEndpoint = new String(JsonStringEncoder.getInstance().quoteAsString(endpoint));
+        String subscriptionJson = "{\"endpoint\":\"" + quotedEndpoint
+                + "\",\"keys\":{\"p256dh\":\"" + base64.encodeToString(p256dh)
+                + "\",\"auth\":\"" + base64.encodeToString(auth) + "\"}}";
+        return json(subscriberId, subscriptionJson);
+    }
+
+    /**
+     * @param subscriberId the subscriber ID
+     * @param endpoint     the push service endpoint
+     * @param p256dh       the raw p256dh key
+     * @param auth         the raw auth secret
+     * @return the binary record
+     * @throws SerializationException if the subscription does not fit the format
+     */
+    public byte[] binary(long subscriberId, String endpoint, byte[] p256dh, byte[] auth) {
+        byte[] endpointBytes = endpoint.getBytes(StandardCharsets.UTF_8);
+        if (endpointBytes.length > MAX_SHORT_FIELD || p256dh.length > MAX_BYTE_FIELD || auth.length > MAX_BYTE_FIELD) {
+            throw new SerializationException("Subscription of subscriber " + subscriberId
+                    + " does not fit the binary wire format");
+        }
+        return ByteBuffer.allocate(2 + Long.BYTES
+                        + Short.BYTES + endpointBytes.length
+                        + 1 + p256dh.length
+                        + 1 + auth.length
+                        + Integer.BYTES + text.length)
+                .put(SEND_MAGIC)
+                .put(VERSION)
+                .putLong(subscriberId)
+                .putShort((short) endpointBytes.length).put(endpointBytes)
+                .put((byte) p256dh.length).put(p256dh)
+                .put((byte) auth.length).put(auth)
+                .putInt(text.length).put(text)
+                .array();
+    }
+
+    /**
+     * @param subscriberIds the subscriber IDs of one chunk
+     * @return the fan-out record
+     */
+    public byte[] fanOut(long[] subscriberIds) {
+        ByteBuffer buffer = ByteBuffer.allocate(2
+                + Integer.BYTES + text.length
+                + Integer.BYTES + subscriberIds.length * Long.BYTES);
+        buffer.put(FAN_OUT_MAGIC)
+                .put(VERSION)
+                .putInt(text.length).put(text)
+                .putInt(subscriberIds.length);
+        buffer.asLongBuffer().put(subscriberIds);
+        return buffer.array();
+    }
+}
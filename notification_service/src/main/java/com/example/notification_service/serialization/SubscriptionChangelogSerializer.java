@@ -0,0 +1,49 @@
+package com.example.notification_service.serialization;
+
+import com.example.notification_service.models.NotificationSubscriber;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serializes the subscriptions of subscribers for the subscriptions changelog
+ * topic, with the keys as raw bytes. All numbers are big-endian:
+ * <pre>
+ * byte   magic (0xB9)
+ * byte   version (1)
+ * short  endpoint length, endpoint UTF-8 bytes
+ * byte   p256dh length, p256dh key bytes
+ * byte   auth length, auth secret bytes
+ * </pre>
+ */
+public class SubscriptionChangelogSerializer implements Serializer<NotificationSubscriber> {
+
+    public static final byte MAGIC = (byte) 0xB9;
+    public static final byte VERSION = 1;
+
+    private static final int MAX_SHORT_FIELD = 0xFFFF;
+    private static final int MAX_BYTE_FIELD = 0xFF;
+
+    @Override
+    public byte[] serialize(String topic, NotificationSubscriber subscriber) {
+        if (subscriber == null) {
+            return null;
+        }
+        byte[] endpoint = subscriber.getEndpoint().getBytes(StandardCharsets.UTF_8);
+        byte[] p256dh = subscriber.getP256dh();
+        byte[] auth = subscriber.getAuth();
+        if (endpoint.length > MAX_SHORT_FIELD || p256dh.length > MAX_BYTE_FIELD || auth.length > MAX_BYTE_FIELD) {
+            throw new SerializationException("Subscription does not fit the changelog format");
+        }
+
+        return ByteBuffer.allocate(2 + Short.BYTES + endpoint.length + 1 + p256dh.length + 1 + auth.length)
+                .put(MAGIC)
+                .put(VERSION)
+                .putShort((short) endpoint.length).put(endpoint)
+                .put((byte) p256dh.length).put(p256dh)
+                .put((byte) auth.length).put(auth)
+                .array();
+    }
+}
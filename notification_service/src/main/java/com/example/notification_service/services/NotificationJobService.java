@@ -0,0 +1,160 @@
+package com.example.notification_service.services;
+
+import com.example.notification_service.configurations.KafkaConfiguration;
+import com.example.notification_service.models.DeliveryReport;
+import com.example.notification_service.models.NotificationJob;
+import com.example.notification_service.models.NotificationRequestDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@code /notificate} requests as background jobs. Recipients are loaded
+ * and their worker topic records published on a bounded executor, so the
+ * request returns as soon as the job is accepted. Jobs are kept in memory for
+ * {@code notification.jobs.retention} after they were created, together with
+ * the delivery outcomes the workers report for them.
+ */
+@Slf4j
+@Service
+public class NotificationJobService {
+
+    private final Map<String, NotificationJob> jobs = new ConcurrentHashMap<>();
+    private final ProducerService producerService;
+    private final NotificationPushService pushService;
+    private final ObjectReader reportReader;
+
+    @Value("${notification.jobs.threads:4}")
+    private int threads;
+
+    @Value("${notification.jobs.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${notification.jobs.retention:1h}")
+    private Duration retention;
+
+    private ThreadPoolExecutor executor;
+
+    @Autowired
+    public NotificationJobService(
+            ProducerService producerService,
+            NotificationPushService pushService,
+            ObjectMapper mapper) {
+        this.producerService = producerService;
+        this.pushService = pushService;
+        this.reportReader = mapper.readerFor(DeliveryReport.class);
+    }
+
+    @PostConstruct
+    private void init() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new Thread(runnable, "notification-job-" + threadNumber.incrementAndGet()));
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Accepts a notification request as a new job.
+     *
+     * @param producerId the provider ID of the producer sending the notification
+     * @param dto        the notification request
+     * @return the accepted job
+     * @throws RejectedExecutionException if the job queue is full
+     */
+    public NotificationJob submit(String producerId, NotificationRequestDTO dto) {
+        evictExpiredJobs();
+        NotificationJob job = new NotificationJob(UUID.randomUUID().toString(), producerId);
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> run(job, dto));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            throw e;
+        }
+        return job;
+    }
+
+    /**
+     * @param jobId      the job ID
+     * @param producerId the provider ID of the producer asking
+     * @return the job, if it exists and belongs to the producer
+     */
+    public Optional<NotificationJob> find(String jobId, String producerId) {
+        return Optional.ofNullable(jobs.get(jobId))
+                .filter(job -> job.getProducerId().equals(producerId));
+    }
+
+    /**
+     * Listens to delivery reports from the workers and adds them to their jobs.
+     * Jobs only live in the instance that accepted them, so every instance
+     * reads all reports, in a consumer group of its own, and skips those of
+     * jobs it does not know.
+     *
+     * @param data the JSON report
+     */
+    @KafkaListener(
+            topics = {KafkaConfiguration.DELIVERY_REPORT_TOPIC},
+            groupId = "notification_service-reports-${random.uuid}",
+            properties = {"auto.offset.reset=latest", "enable.auto.commit=false"})
+    public void applyDeliveryReport(String data) {
+        DeliveryReport report;
+        try {
+            report = reportReader.readValue(data);
+        } catch (JsonProcessingException e) {
+            log.warn("Skipping undecodable delivery report {}", data, e);
+            return;
+        }
+        NotificationJob job = report.getJobId() == null ? null : jobs.get(report.getJobId());
+        if (job != null) {
+            job.getDelivered().addAndGet(report.getDelivered());
+            job.getFailed().addAndGet(report.getFailed());
+            job.getExpired().addAndGet(report.getExpired());
+        }
+    }
+
+    private void run(NotificationJob job, NotificationRequestDTO dto) {
+        job.setStatus(NotificationJob.Status.PUBLISHING);
+        try {
+            Optional<Long> producerId = producerService.findId(job.getProducerId());
+            if (producerId.isPresent() && dto.getNames() != null && dto.getNames().length > 0) {
+                pushService.sendNotifications(job, producerId.get(), dto.getNames(), dto.getMessage());
+            }
+            job.setStatus(NotificationJob.Status.PUBLISHED);
+        } catch (Exception e) {
+            log.error("Notification job {} failed", job.getId(), e);
+            job.setError(e.toString());
+            job.setStatus(NotificationJob.Status.FAILED);
+        }
+    }
+
+    private void evictExpiredJobs() {
+        Instant cutoff = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> job.getCreatedAt().isBefore(cutoff)
+                && job.getStatus() != NotificationJob.Status.QUEUED
+                && job.getStatus() != NotificationJob.Status.PUBLISHING);
+    }
+}
@@ -1,38 +1,82 @@
 package com.example.notification_service.services;
 
-import com.example.notification_service.models.NotificationSendDTO;
+import com.example.notification_service.configurations.KafkaConfiguration;
+import com.example.notification_service.models.NotificationJob;
+import com.example.notification_service.models.NotificationRecipient;
+import com.example.notification_service.models.RecipientKey;
+import com.example.notification_service.models.SubscriptionDTO;
+import com.example.notification_service.repositories.SubscriberRepository;
+import com.example.notification_service.serialization.NotificationBroadcastEncoder;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 import nl.martijndwars.webpush.Notification;
 import nl.martijndwars.webpush.PushService;
 import nl.martijndwars.webpush.Subscription;
 import nl.martijndwars.webpush.Urgency;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.jose4j.lang.JoseException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.Security;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 /**
  * Service for handling Web Push notification operations and sending notifications via Kafka.
+ * Worker topic records are encoded by {@link NotificationBroadcastEncoder},
+ * which encodes the message once per notification. They are written as JSON
+ * by default, or in the compact binary format with
+ * {@code notification.kafka.wire-format=binary}. Workers read both formats.
+ * With {@code notification.kafka.fan-out.enabled=true} a notification is
+ * instead published as fan-out records carrying the message once and a chunk
+ * of subscriber IDs, which workers resolve against their replicated
+ * subscription store.
  */
+@Slf4j
 @Service
 public class NotificationPushService {
 
-    private static final String WORKER_TOPIC = "worker_topic";
     private static final String TEST_NOTIFICATION_JSON = "{\"title\":\"Привет\",\"body\":\"Сообщение из Java!\"}";
+    private static final String BINARY_WIRE_FORMAT = "binary";
+    private static final String JOB_ID_HEADER = "notification-job-id";
 
-    private final KafkaTemplate<String, String> kafkaTemplate;
-    private final ObjectMapper mapper;
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final ObjectReader subscriptionReader;
+    private final PartitionKeyStrategy partitionKeyStrategy;
+    private final SubscriberRepository subscriberRepository;
+
+    @Value("${notification.kafka.wire-format:json}")
+    private String wireFormat;
+
+    @Value("${notification.kafka.fan-out.enabled:false}")
+    private boolean fanOut;
+
+    @Value("${notification.kafka.fan-out.chunk-size:1000}")
+    private int fanOutChunkSize;
+
+    @Value("${notification.recipients.page-size:5000}")
+    private int pageSize;
 
     @Value("${key.private}")
     private String privateKey;
@@ -42,11 +86,19 @@ public class NotificationPushService {
     private String publicKey;
 
     private PushService pushService;
+    private ExecutorService pageLoader;
 
     @Autowired
-    public NotificationPushService(KafkaTemplate<String, String> kafkaTemplate, ObjectMapper mapper) {
-        this.kafkaTemplate = kafkaTemplate;
-        this.mapper = mapper;
+    public NotificationPushService(
+            ProducerFactory<String, byte[]> producerFactory,
+            ObjectMapper mapper,
+            PartitionKeyStrategy partitionKeyStrategy,
+            SubscriberRepository subscriberRepository) {
+        this.kafkaTemplate = new KafkaTemplate<>(producerFactory,
+                Map.of(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class));
+        this.subscriptionReader = mapper.readerFor(SubscriptionDTO.class);
+        this.partitionKeyStrategy = partitionKeyStrategy;
+        this.subscriberRepository = subscriberRepository;
     }
 
     /**
@@ -58,17 +110,121 @@ public class NotificationPushService {
     private void init() throws GeneralSecurityException {
         Security.addProvider(new BouncyCastleProvider());
         pushService = new PushService(publicKey, privateKey);
+        pageLoader = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "recipient-page-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        pageLoader.shutdownNow();
     }
 
     /**
-     * Sends notifications to Kafka topic for asynchronous processing.
+     * Sends notifications to Kafka topic for asynchronous processing, keyed by
+     * the configured {@link PartitionKeyStrategy}. Recipients are selected in
+     * the database in keyset-paginated pages of
+     * {@code notification.recipients.page-size}, fetching only the columns the
+     * configured record format needs, and the next page is loaded while the
+     * current one is published, so memory use does not grow with the audience.
+     * Records carry the job ID in a header, so workers can report the outcomes
+     * back, and the job's queued, published and failed counts follow the sends.
      *
-     * @param notifications list of notifications to send
-     * @throws JsonProcessingException if JSON serialization fails
+     * @param job        the job the notification is sent for
+     * @param producerId the ID of the producer whose subscribers are notified
+     * @param names      the names of the subscribers to notify
+     * @param message    the notification message
+     */
+    public void sendNotifications(NotificationJob job, Long producerId, String[] names, String message) {
+        NotificationBroadcastEncoder encoder = new NotificationBroadcastEncoder(message);
+        if (fanOut) {
+            streamPages(job,
+                    (afterName, afterId) -> subscriberRepository.findRecipientKeys(
+                            producerId, names, afterName, afterId, pageSize),
+                    page -> sendFanOut(job, page, encoder));
+            return;
+        }
+        boolean binary = BINARY_WIRE_FORMAT.equals(wireFormat);
+        streamPages(job,
+                (afterName, afterId) -> subscriberRepository.findRecipients(
+                        producerId, names, afterName, afterId, pageSize),
+                page -> {
+                    for (NotificationRecipient recipient : page) {
+                        byte[] value = encode(encoder, recipient, binary);
+                        if (value != null) {
+                            publish(job, 1, partitionKeyStrategy.keyFor(recipient), value);
+                        } else {
+                            job.getFailed().incrementAndGet();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Hands the pages of recipients to the consumer in name and ID order,
+     * loading the next page in the background while the consumer handles the
+     * current one. The loader is given the name and ID of the last recipient
+     * of the previous page.
+     */
+    private <T extends RecipientKey> void streamPages(
+            NotificationJob job, BiFunction<String, Long, List<T>> loader, Consumer<List<T>> consumer) {
+        List<T> page = loader.apply("", 0L);
+        while (!page.isEmpty()) {
+            T last = page.get(page.size() - 1);
+            CompletableFuture<List<T>> next = page.size() < pageSize
+                    ? CompletableFuture.completedFuture(List.of())
+                    : CompletableFuture.supplyAsync(() -> loader.apply(last.getName(), last.getId()), pageLoader);
+            job.setRecipients(job.getRecipients() + page.size());
+            consumer.accept(page);
+            page = next.join();
+        }
+    }
+
+    private void sendFanOut(NotificationJob job, List<RecipientKey> recipients, NotificationBroadcastEncoder encoder) {
+        for (int from = 0; from < recipients.size(); from += fanOutChunkSize) {
+            List<RecipientKey> chunk = recipients.subList(from, Math.min(from + fanOutChunkSize, recipients.size()));
+            long[] subscriberIds = new long[chunk.size()];
+            for (int i = 0; i < subscriberIds.length; i++) {
+                subscriberIds[i] = chunk.get(i).getId();
+            }
+            publish(job, subscriberIds.length, null, encoder.fanOut(subscriberIds));
+        }
+    }
+
+    private void publish(NotificationJob job, int recipients, String key, byte[] value) {
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(KafkaConfiguration.WORKER_TOPIC, key, value);
+        record.headers().add(JOB_ID_HEADER, job.getId().getBytes(StandardCharsets.UTF_8));
+        job.getQueued().addAndGet(recipients);
+        kafkaTemplate.send(record).whenComplete((result, error) ->
+                (error == null ? job.getPublished() : job.getFailed()).addAndGet(recipients));
+    }
+
+    /**
+     * @return the record, or null if the recipient's subscription cannot be encoded
      */
-    public void sendNotifications(List<NotificationSendDTO> notifications) throws JsonProcessingException {
-        for (NotificationSendDTO notification : notifications) {
-            kafkaTemplate.send(WORKER_TOPIC, mapper.writeValueAsString(notification));
+    private byte[] encode(NotificationBroadcastEncoder encoder, NotificationRecipient recipient, boolean binary) {
+        try {
+            long id = recipient.getId();
+            if (recipient.getEndpoint() != null) {
+                return binary
+                        ? encoder.binary(id, recipient.getEndpoint(), recipient.getP256dh(), recipient.getAuth())
+                        : encoder.json(id, recipient.getEndpoint(), recipient.getP256dh(), recipient.getAuth());
+            }
+            // Saved as subscription JSON and not migrated yet.
+            if (!binary) {
+                return encoder.json(id, recipient.getSubscriptionJson());
+            }
+            SubscriptionDTO subscription = subscriptionReader.readValue(recipient.getSubscriptionJson());
+            return encoder.binary(
+                    id,
+                    subscription.getEndpoint(),
+                    subscription.decodeP256dh(),
+                    subscription.decodeAuth());
+        } catch (JsonProcessingException | RuntimeException e) {
+            log.warn("Skipping undecodable subscription of subscriber {}", recipient.getId(), e);
+            return null;
         }
     }
 
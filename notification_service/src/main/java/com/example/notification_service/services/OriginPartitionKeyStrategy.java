@@ -0,0 +1,27 @@
+package com.example.notification_service.services;
+
+import com.example.notification_service.models.NotificationRecipient;
+
+import java.net.URI;
+
+/**
+ * Keys records by the origin of the subscription's push service, so each
+ * worker talks to few push hosts and keeps their connections warm. There are
+ * only a handful of push services, so this concentrates traffic on as many
+ * partitions as there are origins.
+ */
+public class OriginPartitionKeyStrategy implements PartitionKeyStrategy {
+
+    @Override
+    public String keyFor(NotificationRecipient recipient) {
+        if (recipient.getEndpoint() == null) {
+            return null;
+        }
+        try {
+            URI endpoint = URI.create(recipient.getEndpoint());
+            return endpoint.getScheme() + "://" + endpoint.getAuthority();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
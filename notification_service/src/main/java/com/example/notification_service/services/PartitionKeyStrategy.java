@@ -0,0 +1,20 @@
+package com.example.notification_service.services;
+
+import com.example.notification_service.models.NotificationRecipient;
+
+/**
+ * Chooses the Kafka record key, and with it the partition, of the worker topic
+ * record sent to a subscriber. Records with the same key land on the same
+ * partition and so are handled in order by the same worker.
+ */
+@FunctionalInterface
+public interface PartitionKeyStrategy {
+
+    /**
+     * Computes the record key for a recipient.
+     *
+     * @param recipient the recipient of the notification
+     * @return the record key, or null to let the producer spread records across partitions
+     */
+    String keyFor(NotificationRecipient recipient);
+}
@@ -0,0 +1,125 @@
+package com.example.notification_service.services;
+
+import com.example.notification_service.repositories.ProducerRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves provider IDs to producer IDs through a bounded in-process cache.
+ * Duplicate producers are merged before the application serves requests, and
+ * producers are not deleted afterwards, so a cached ID stays valid; once the
+ * cache is full an arbitrary entry is evicted for every new producer.
+ * Producers are created with a single insert that does nothing if the
+ * provider ID exists, so concurrent first requests of a user cannot create
+ * duplicates.
+ */
+@Slf4j
+@Service
+public class ProducerService implements SmartInitializingSingleton {
+
+    private final Map<String, Long> producerIds = new ConcurrentHashMap<>();
+    private final ProducerRepository producerRepository;
+    private final SubscriptionChangelogService changelogService;
+
+    @Value("${notification.producers.cache.capacity:10000}")
+    private int capacity;
+
+    @Value("${notification.producers.deduplicate:true}")
+    private boolean deduplicate;
+
+    @Autowired
+    public ProducerService(ProducerRepository producerRepository, SubscriptionChangelogService changelogService) {
+        this.producerRepository = producerRepository;
+        this.changelogService = changelogService;
+    }
+
+    /**
+     * @param providerId the provider ID of the producer
+     * @return the producer ID, empty if there is no such producer
+     */
+    public Optional<Long> findId(String providerId) {
+        Long producerId = producerIds.get(providerId);
+        if (producerId != null) {
+            return Optional.of(producerId);
+        }
+        Optional<Long> found = producerRepository.findIdByProviderId(providerId);
+        found.ifPresent(id -> cache(providerId, id));
+        return found;
+    }
+
+    /**
+     * Creates the producer unless it exists.
+     *
+     * @param providerId the provider ID of the producer
+     * @return the producer ID
+     */
+    public long ensureExists(String providerId) {
+        Long producerId = producerIds.get(providerId);
+        if (producerId != null) {
+            return producerId;
+        }
+        // Empty if a concurrent request inserted the producer after the statement started.
+        producerId = producerRepository.insertIfAbsent(providerId)
+                .or(() -> producerRepository.findIdByProviderId(providerId))
+                .orElseThrow(() -> new IllegalStateException("Producer " + providerId + " was not created"));
+        cache(providerId, producerId);
+        return producerId;
+    }
+
+    /**
+     * Merges producers that were created more than once for the same provider
+     * ID before it was unique, before the web server and the listener
+     * containers start, so no producer ID is cached before it is merged, and
+     * creates the unique index if the duplicates kept Hibernate from creating
+     * it. Disabled with {@code notification.producers.deduplicate=false}. The
+     * subscribers of the duplicates move to the producer created first; of
+     * those with the same endpoint only the most recently saved one is kept,
+     * and the others are tombstoned in the changelog once the merge has
+     * been committed.
+     */
+    @Override
+    @Transactional
+    public void afterSingletonsInstantiated() {
+        if (!deduplicate) {
+            return;
+        }
+        List<Long> replaced = producerRepository.deleteDuplicateSubscribersOfDuplicates();
+        int moved = producerRepository.moveSubscribersOfDuplicates();
+        int deleted = producerRepository.deleteDuplicates();
+        producerRepository.createProviderIdIndex();
+        if (deleted > 0) {
+            // Tombstones published before the commit would delete subscribers from workers that a rollback keeps.
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    changelogService.publishDeleted(replaced);
+                }
+            });
+            log.info("Merged {} duplicate producers, moved {} subscribers, deleted {} with the same endpoint",
+                    deleted, moved, replaced.size());
+        }
+    }
+
+    private void cache(String providerId, Long producerId) {
+        if (producerIds.size() >= capacity) {
+            Iterator<String> eviction = producerIds.keySet().iterator();
+            if (eviction.hasNext()) {
+                eviction.next();
+                eviction.remove();
+            }
+        }
+        producerIds.put(providerId, producerId);
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.notification_service.services;
+
+import com.example.notification_service.models.NotificationRecipient;
+import com.example.notification_service.models.NotificationSubscriber;
+import com.example.notification_service.models.SubscriptionDTO;
+import com.example.notification_service.repositories.SubscriberRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Migrates subscribers saved as subscription JSON to the subscription columns
+ * and the endpoint hash, once the application has started. Of several
+ * subscribers of a producer with the same endpoint only the most recently
+ * saved one, the one with the highest ID, is kept; the others are deleted and
+ * tombstoned in the changelog. Subscribers of different producers are kept,
+ * since a browser has the same endpoint for every producer. Migrated
+ * subscribers are published to the changelog, which skips subscribers saved
+ * as subscription JSON, so workers in fan-out mode receive them too.
+ * Subscribers whose subscription cannot be read are left as they are. Before
+ * the application serves requests, the unique index on the endpoint hash
+ * alone of older databases is replaced by the one on the endpoint hash and
+ * the producer. Both run only with {@code notification.backfill.enabled=true}.
+ */
+@Slf4j
+@Service
+public class SubscriptionBackfillService implements SmartInitializingSingleton {
+
+    private static final String ENDPOINT_HASH_INDEX = "idx_notification_subscriber_endpoint_hash";
+    private static final String ENDPOINT_HASH_PRODUCER_INDEX = "idx_notification_subscriber_endpoint_hash_producer";
+
+    private final SubscriberRepository subscriberRepository;
+    private final SubscriptionChangelogService changelogService;
+    private final ObjectReader subscriptionReader;
+
+    @Value("${notification.backfill.enabled:true}")
+    private boolean enabled;
+
+    @Value("${notification.backfill.page-size:1000}")
+    private int pageSize;
+
+    @Autowired
+    public SubscriptionBackfillService(
+            SubscriberRepository subscriberRepository,
+            SubscriptionChangelogService changelogService,
+            ObjectMapper mapper) {
+        this.subscriberRepository = subscriberRepository;
+        this.changelogService = changelogService;
+        this.subscriptionReader = mapper.readerFor(SubscriptionDTO.class);
+    }
+
+    /**
+     * Replaces the unique index on the endpoint hash alone, which would keep a
+     * browser from subscribing to a second producer, before the web server
+     * and the listener containers start. The catalog is checked first, so a
+     * database that is already migrated is not locked by any DDL, and the new
+     * index is created before the old one is dropped, so the endpoint hash
+     * stays unique throughout.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled) {
+            return;
+        }
+        if (!subscriberRepository.existsIndex(ENDPOINT_HASH_PRODUCER_INDEX)) {
+            subscriberRepository.createEndpointHashProducerIndex();
+            log.info("Created the unique index {}", ENDPOINT_HASH_PRODUCER_INDEX);
+        }
+        if (subscriberRepository.existsConstraint(ENDPOINT_HASH_INDEX)) {
+            subscriberRepository.dropEndpointHashConstraint();
+            log.info("Dropped the unique constraint {}", ENDPOINT_HASH_INDEX);
+        } else if (subscriberRepository.existsIndex(ENDPOINT_HASH_INDEX)) {
+            subscriberRepository.dropEndpointHashIndex();
+            log.info("Dropped the unique index {}", ENDPOINT_HASH_INDEX);
+        }
+    }
+
+    /**
+     * Migrates the subscribers saved as subscription JSON, in keyset-paginated
+     * pages, while the application serves requests.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        if (!enabled) {
+            return;
+        }
+        long migrated = 0;
+        long deleted = 0;
+        long afterId = 0;
+        List<NotificationRecipient> page = subscriberRepository.findUnmigrated(afterId, pageSize);
+        while (!page.isEmpty()) {
+            for (NotificationRecipient subscriber : page) {
+                SubscriptionDTO subscription = read(subscriber);
+                if (subscription == null) {
+                    continue;
+                }
+                if (migrate(subscriber, subscription)) {
+                    migrated++;
+                } else {
+                    deleted++;
+                }
+            }
+            afterId = page.get(page.size() - 1).getId();
+            page = subscriberRepository.findUnmigrated(afterId, pageSize);
+        }
+        if (migrated > 0 || deleted > 0) {
+            log.info("Migrated {} subscribers to the subscription columns, deleted {} duplicates", migrated, deleted);
+        }
+    }
+
+    /**
+     * @return true if the subscriber was migrated, false if it was deleted as a
+     * duplicate or was deleted while the backfill was running
+     */
+    private boolean migrate(NotificationRecipient subscriber, SubscriptionDTO subscription) {
+        Long subscriberId = subscriber.getId();
+        byte[] endpointHash = NotificationSubscriber.hashEndpoint(subscription.getEndpoint());
+        Optional<Long> existing = subscriberRepository.findIdByEndpointHash(subscriber.getProducerId(), endpointHash)
+                .filter(existingId -> !existingId.equals(subscriberId));
+        if (existing.isPresent() && existing.get() > subscriberId) {
+            delete(subscriberId);
+            return false;
+        }
+        existing.ifPresent(this::delete);
+        NotificationSubscriber migrated = new NotificationSubscriber();
+        migrated.setId(subscriberId);
+        migrated.setName(subscriber.getName());
+        migrated.setEndpoint(subscription.getEndpoint());
+        migrated.setP256dh(subscription.decodeP256dh());
+        migrated.setAuth(subscription.decodeAuth());
+        migrated.setExpirationTime(subscription.getExpirationTime());
+        migrated.setEndpointHash(endpointHash);
+        try {
+            if (subscriberRepository.migrate(
+                    subscriberId,
+                    migrated.getEndpoint(),
+                    migrated.getP256dh(),
+                    migrated.getAuth(),
+                    migrated.getExpirationTime(),
+                    migrated.getEndpointHash()) == 0) {
+                return false;
+            }
+            changelogService.publishSaved(migrated);
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            // The endpoint subscribed again while the backfill was running.
+            delete(subscriberId);
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the subscribers with the push endpoint that are not migrated
+     * yet, so unsubscribing works while the backfill is running.
+     *
+     * @param endpoint the push endpoint
+     * @return the IDs of the deleted subscribers
+     */
+    public List<Long> deleteUnmigrated(String endpoint) {
+        List<Long> subscriberIds = subscriberRepository.findUnmigratedContaining(endpoint).stream()
+                .filter(subscriber -> {
+                    SubscriptionDTO subscription = read(subscriber);
+                    return subscription != null && endpoint.equals(subscription.getEndpoint());
+                })
+                .map(NotificationRecipient::getId)
+                .toList();
+        if (!subscriberIds.isEmpty()) {
+            subscriberRepository.deleteAllByIdInBatch(subscriberIds);
+        }
+        return subscriberIds;
+    }
+
+    private void delete(Long subscriberId) {
+        subscriberRepository.deleteAllByIdInBatch(List.of(subscriberId));
+        changelogService.publishDeleted(List.of(subscriberId));
+    }
+
+    /**
+     * @return the subscription, or null if it cannot be migrated
+     */
+    private SubscriptionDTO read(NotificationRecipient subscriber) {
+        try {
+            SubscriptionDTO subscription = subscriptionReader.readValue(subscriber.getSubscriptionJson());
+            if (subscription.getEndpoint() != null && subscription.getKeys() != null) {
+                subscription.decodeP256dh();
+                subscription.decodeAuth();
+                return subscription;
+            }
+        } catch (JsonProcessingException | RuntimeException e) {
+            log.warn("Cannot migrate the undecodable subscription of subscriber {}", subscriber.getId(), e);
+            return null;
+        }
+        log.warn("Cannot migrate the incomplete subscription of subscriber {}", subscriber.getId());
+        return null;
+    }
+}
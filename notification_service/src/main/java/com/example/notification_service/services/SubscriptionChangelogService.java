@@ -0,0 +1,206 @@
+package com.example.notification_service.services;
+
+import com.example.notification_service.configurations.KafkaConfiguration;
+import com.example.notification_service.models.NotificationRecipient;
+import com.example.notification_service.models.NotificationSubscriber;
+import com.example.notification_service.repositories.SubscriberRepository;
+import com.example.notification_service.serialization.SubscriptionChangelogSerializer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Publishes subscriber inserts and deletes to the log-compacted subscriptions
+ * changelog topic, keyed by subscriber ID. A delete is published as a
+ * tombstone, so after compaction the topic holds exactly the current
+ * subscriptions, which workers replicate into their subscription store.
+ * Publishing does not wait for the broker. Subscribers whose publish failed
+ * are republished every {@code notification.changelog.republish-interval}
+ * with their state in the database at that time: the current subscription,
+ * or a tombstone if the subscriber no longer exists.
+ */
+@Slf4j
+@Service
+public class SubscriptionChangelogService {
+
+    private final SubscriberRepository subscriberRepository;
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final SubscriptionChangelogSerializer serializer = new SubscriptionChangelogSerializer();
+
+    @Value("${notification.changelog.bootstrap:false}")
+    private boolean bootstrap;
+
+    @Value("${notification.changelog.bootstrap-page-size:1000}")
+    private int bootstrapPageSize;
+
+    @Value("${notification.changelog.republish-interval:30s}")
+    private Duration republishInterval;
+
+    private final Set<Long> unpublished = ConcurrentHashMap.newKeySet();
+    private final AtomicLong failedPublishes = new AtomicLong();
+    private ScheduledExecutorService republisher;
+
+    @Autowired
+    public SubscriptionChangelogService(
+            SubscriberRepository subscriberRepository,
+            ProducerFactory<String, byte[]> producerFactory) {
+        this.subscriberRepository = subscriberRepository;
+        this.kafkaTemplate = new KafkaTemplate<>(producerFactory,
+                Map.of(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class));
+    }
+
+    @PostConstruct
+    private void init() {
+        republisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "changelog-republish");
+            thread.setDaemon(true);
+            return thread;
+        });
+        republisher.scheduleWithFixedDelay(this::republishFailed,
+                republishInterval.toMillis(), republishInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        republisher.shutdownNow();
+    }
+
+    /**
+     * Publishes the current subscription of a saved subscriber. Subscribers
+     * that are not migrated to the subscription columns yet are skipped.
+     *
+     * @param subscriber the saved subscriber
+     */
+    public void publishSaved(NotificationSubscriber subscriber) {
+        if (subscriber.getEndpoint() == null) {
+            log.warn("Not publishing the unmigrated subscription of subscriber {}", subscriber.getId());
+            return;
+        }
+        send(subscriber.getId(), serializer.serialize(KafkaConfiguration.SUBSCRIPTIONS_CHANGELOG_TOPIC, subscriber));
+    }
+
+    /**
+     * Publishes tombstones for deleted subscribers.
+     *
+     * @param subscriberIds the IDs of the deleted subscribers
+     */
+    public void publishDeleted(Collection<Long> subscriberIds) {
+        for (Long subscriberId : subscriberIds) {
+            send(subscriberId, null);
+        }
+    }
+
+    /**
+     * @return the number of publishes that failed since the application started
+     */
+    public long getFailedPublishes() {
+        return failedPublishes.get();
+    }
+
+    /**
+     * Republishes the subscribers whose publish failed, with their current
+     * state in the database. Subscribers whose publish fails again are
+     * republished on the next run.
+     */
+    void republishFailed() {
+        if (unpublished.isEmpty()) {
+            return;
+        }
+        List<Long> subscriberIds = List.copyOf(unpublished);
+        unpublished.removeAll(subscriberIds);
+        try {
+            Map<Long, NotificationSubscriber> saved = subscriberRepository.findAllById(subscriberIds).stream()
+                    .collect(Collectors.toMap(NotificationSubscriber::getId, Function.identity()));
+            for (Long subscriberId : subscriberIds) {
+                NotificationSubscriber subscriber = saved.get(subscriberId);
+                if (subscriber == null) {
+                    send(subscriberId, null);
+                } else {
+                    publishSaved(subscriber);
+                }
+            }
+            log.info("Republished {} subscribers to {}", subscriberIds.size(),
+                    KafkaConfiguration.SUBSCRIPTIONS_CHANGELOG_TOPIC);
+        } catch (RuntimeException e) {
+            log.warn("Could not republish {} subscribers, retrying on the next run", subscriberIds.size(), e);
+            unpublished.addAll(subscriberIds);
+        }
+    }
+
+    private void send(Long subscriberId, byte[] value) {
+        CompletableFuture<?> sent;
+        try {
+            sent = kafkaTemplate.send(KafkaConfiguration.SUBSCRIPTIONS_CHANGELOG_TOPIC, String.valueOf(subscriberId), value);
+        } catch (RuntimeException e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        sent.whenComplete((result, error) -> {
+            if (error != null) {
+                failedPublishes.incrementAndGet();
+                unpublished.add(subscriberId);
+                log.warn("Could not publish subscriber {} to {}", subscriberId,
+                        KafkaConfiguration.SUBSCRIPTIONS_CHANGELOG_TOPIC, error);
+            }
+        });
+    }
+
+    /**
+     * Republishes every stored subscriber once the application has started,
+     * if {@code notification.changelog.bootstrap=true}. Used to seed the
+     * changelog with subscribers saved before it existed. Subscribers are read
+     * in pages of {@code notification.changelog.bootstrap-page-size}, each
+     * starting after the last ID of the previous one, with only the columns
+     * the changelog needs. Subscribers that are not migrated to the
+     * subscription columns yet are published by
+     * {@link SubscriptionBackfillService} once it migrates them.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void bootstrap() {
+        if (!bootstrap) {
+            return;
+        }
+        long published = 0;
+        List<NotificationRecipient> page = subscriberRepository.findMigrated(0, bootstrapPageSize);
+        while (!page.isEmpty()) {
+            for (NotificationRecipient recipient : page) {
+                publishSaved(toSubscriber(recipient));
+            }
+            published += page.size();
+            page = subscriberRepository.findMigrated(page.get(page.size() - 1).getId(), bootstrapPageSize);
+        }
+        log.info("Published {} subscribers to {}", published, KafkaConfiguration.SUBSCRIPTIONS_CHANGELOG_TOPIC);
+    }
+
+    private static NotificationSubscriber toSubscriber(NotificationRecipient recipient) {
+        NotificationSubscriber subscriber = new NotificationSubscriber();
+        subscriber.setId(recipient.getId());
+        subscriber.setName(recipient.getName());
+        subscriber.setEndpoint(recipient.getEndpoint());
+        subscriber.setP256dh(recipient.getP256dh());
+        subscriber.setAuth(recipient.getAuth());
+        return subscriber;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.notification_service.services;
+
+import com.example.notification_service.configurations.KafkaConfiguration;
+import com.example.notification_service.models.SubscriptionExpiredEvent;
+import com.example.notification_service.repositories.SubscriberRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Service;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Service for removing subscriptions that push services reported as expired.
+ */
+@Slf4j
+@Service
+public class SubscriptionFeedbackService {
+
+    private final SubscriberRepository subscriberRepository;
+    private final SubscriptionChangelogService changelogService;
+    private final ObjectReader eventReader;
+
+    @Autowired
+    public SubscriptionFeedbackService(
+            SubscriberRepository subscriberRepository,
+            SubscriptionChangelogService changelogService,
+            ObjectMapper mapper) {
+        this.subscriberRepository = subscriberRepository;
+        this.changelogService = changelogService;
+        this.eventReader = mapper.readerFor(SubscriptionExpiredEvent.class);
+    }
+
+    /**
+     * Listens to expired-subscription events from the worker and deletes the
+     * reported subscribers, one delete statement per poll batch.
+     *
+     * @param batch the JSON strings of one poll
+     */
+    @KafkaListener(
+            topics = {KafkaConfiguration.SUBSCRIPTION_FEEDBACK_TOPIC},
+            groupId = "${notification.feedback.group-id:notification_service}",
+            batch = "true",
+            properties = {"max.poll.records=${notification.feedback.batch-size:500}"})
+    public void deleteExpiredSubscriptions(List<String> batch) {
+        Set<Long> subscriberIds = new HashSet<>();
+        for (String data : batch) {
+            try {
+                SubscriptionExpiredEvent event = eventReader.readValue(data);
+                if (event.getSubscriberId() != null) {
+                    subscriberIds.add(event.getSubscriberId());
+                }
+            } catch (JsonProcessingException e) {
+                log.warn("Skipping undecodable feedback event {}", data, e);
+            }
+        }
+
+        if (!subscriberIds.isEmpty()) {
+            subscriberRepository.deleteAllByIdInBatch(subscriberIds);
+            changelogService.publishDeleted(subscriberIds);
+        }
+    }
+}
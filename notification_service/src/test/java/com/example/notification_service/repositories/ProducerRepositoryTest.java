@@ -0,0 +1,78 @@
+package com.example.notification_service.repositories;
+
+import com.example.notification_service.models.NotificationSubscriber;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the native producer queries against PostgreSQL, with the schema
+ * Hibernate generates from the entities.
+ */
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=create-drop")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Testcontainers(disabledWithoutDocker = true)
+class ProducerRepositoryTest {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Autowired
+    private ProducerRepository producerRepository;
+
+    @Autowired
+    private SubscriberRepository subscriberRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Test
+    void insertIfAbsentReturnsTheExistingProducer() {
+        long inserted = producerRepository.insertIfAbsent("alice").orElseThrow();
+
+        assertEquals(inserted, producerRepository.insertIfAbsent("alice").orElseThrow());
+        assertNotEquals(inserted, producerRepository.insertIfAbsent("bob").orElseThrow());
+        assertEquals(inserted, producerRepository.findIdByProviderId("alice").orElseThrow());
+        assertEquals(2, producerRepository.count());
+    }
+
+    @Test
+    void duplicatesAreMergedIntoTheFirstProducer() {
+        // Duplicates could only be created before the provider ID was unique.
+        entityManager.getEntityManager().createNativeQuery(
+                "ALTER TABLE producer DROP CONSTRAINT idx_producer_provider_id").executeUpdate();
+        long first = insertDuplicate("alice");
+        long duplicate = insertDuplicate("alice");
+        long other = insertDuplicate("bob");
+        long subscriberId = subscriberRepository.upsert(duplicate, "name", "https://push.example/a",
+                new byte[65], new byte[16], null, NotificationSubscriber.hashEndpoint("https://push.example/a"));
+
+        assertEquals(1, producerRepository.moveSubscribersOfDuplicates());
+        assertEquals(1, producerRepository.deleteDuplicates());
+        producerRepository.createProviderIdIndex();
+
+        entityManager.clear();
+        assertEquals(first, subscriberRepository.findById(subscriberId).orElseThrow().getProducer().getId());
+        assertTrue(producerRepository.existsById(other));
+        assertEquals(2, producerRepository.count());
+    }
+
+    private long insertDuplicate(String providerId) {
+        return ((Number) entityManager.getEntityManager()
+                .createNativeQuery("INSERT INTO producer (id, provider_id) "
+                        + "VALUES (nextval('producer_seq'), :providerId) RETURNING id")
+                .setParameter("providerId", providerId)
+                .getSingleResult()).longValue();
+    }
+}
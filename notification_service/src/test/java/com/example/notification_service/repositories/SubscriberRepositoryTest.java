@@ -0,0 +1,282 @@
+package com.example.notification_service.repositories;
+
+import com.example.notification_service.models.NotificationRecipient;
+import com.example.notification_service.models.NotificationSubscriber;
+import com.example.notification_service.models.RecipientKey;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.data.jpa.repository.Query;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the native subscriber queries against PostgreSQL, with the schema
+ * Hibernate generates from the entities.
+ */
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=create-drop")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Testcontainers(disabledWithoutDocker = true)
+class SubscriberRepositoryTest {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static final byte[] P256DH = new byte[65];
+    private static final byte[] AUTH = new byte[16];
+
+    @Autowired
+    private SubscriberRepository subscriberRepository;
+
+    @Autowired
+    private ProducerRepository producerRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    private long producerId;
+
+    @BeforeEach
+    void createProducer() {
+        producerId = producerRepository.insertIfAbsent("producer").orElseThrow();
+    }
+
+    @Test
+    void upsertReturnsTheIdOfTheSubscriberWithTheSameEndpoint() {
+        long inserted = upsert("first", "https://push.example/a");
+        long updated = upsert("second", "https://push.example/a");
+
+        assertEquals(inserted, updated);
+        entityManager.clear();
+        NotificationSubscriber subscriber = subscriberRepository.findById(inserted).orElseThrow();
+        assertEquals("second", subscriber.getName());
+        assertEquals(1, subscriberRepository.count());
+    }
+
+    @Test
+    void upsertKeepsARowPerProducerForTheSameEndpoint() {
+        long otherProducerId = producerRepository.insertIfAbsent("other").orElseThrow();
+        byte[] endpointHash = NotificationSubscriber.hashEndpoint("https://push.example/a");
+
+        long first = upsert("name", "https://push.example/a");
+        long other = subscriberRepository.upsert(
+                otherProducerId, "name", "https://push.example/a", P256DH, AUTH, null, endpointHash);
+
+        assertNotEquals(first, other);
+        assertEquals(first, subscriberRepository.findIdByEndpointHash(producerId, endpointHash).orElseThrow());
+        assertEquals(other, subscriberRepository.findIdByEndpointHash(otherProducerId, endpointHash).orElseThrow());
+        assertEquals(2, subscriberRepository.count());
+    }
+
+    @Test
+    void upsertClearsTheSubscriptionJsonOfALegacySubscriber() {
+        long legacyId = saveLegacy("legacy", "https://push.example/a");
+        subscriberRepository.migrate(legacyId, "https://push.example/a", P256DH, AUTH, null,
+                NotificationSubscriber.hashEndpoint("https://push.example/a"));
+
+        assertEquals(legacyId, upsert("legacy", "https://push.example/a"));
+        entityManager.clear();
+        assertNull(subscriberRepository.findById(legacyId).orElseThrow().getSubscriptionJson());
+    }
+
+    @Test
+    void deleteByEndpointHashDeletesTheSubscribersOfEveryProducer() {
+        long otherProducerId = producerRepository.insertIfAbsent("other").orElseThrow();
+        byte[] endpointHash = NotificationSubscriber.hashEndpoint("https://push.example/a");
+        long first = upsert("name", "https://push.example/a");
+        long other = subscriberRepository.upsert(
+                otherProducerId, "name", "https://push.example/a", P256DH, AUTH, null, endpointHash);
+        long kept = upsert("name", "https://push.example/b");
+
+        assertEquals(Set.of(first, other), Set.copyOf(subscriberRepository.deleteByEndpointHash(endpointHash)));
+        assertTrue(subscriberRepository.deleteByEndpointHash(endpointHash).isEmpty());
+        assertEquals(List.of(kept), subscriberRepository.findAll().stream().map(NotificationSubscriber::getId).toList());
+    }
+
+    @Test
+    void findUnmigratedContainingSelectsOnlyUnmigratedSubscribers() {
+        long legacyId = saveLegacy("a", "https://push.example/a");
+        upsert("a", "https://push.example/a");
+        saveLegacy("b", "https://push.example/b");
+
+        assertEquals(List.of(legacyId), ids(subscriberRepository.findUnmigratedContaining("https://push.example/a")));
+    }
+
+    @Test
+    void theUniqueIndexOnTheEndpointHashAloneIsReplaced() {
+        // The schema of databases from before the endpoint hash was unique per producer.
+        entityManager.getEntityManager().createNativeQuery("""
+                ALTER TABLE notification_subscriber
+                DROP CONSTRAINT idx_notification_subscriber_endpoint_hash_producer,
+                ADD CONSTRAINT idx_notification_subscriber_endpoint_hash UNIQUE (endpoint_hash)
+                """).executeUpdate();
+
+        assertTrue(subscriberRepository.existsConstraint("idx_notification_subscriber_endpoint_hash"));
+        assertTrue(subscriberRepository.existsIndex("idx_notification_subscriber_endpoint_hash"));
+        assertFalse(subscriberRepository.existsIndex("idx_notification_subscriber_endpoint_hash_producer"));
+
+        subscriberRepository.createEndpointHashProducerIndex();
+        subscriberRepository.dropEndpointHashConstraint();
+        subscriberRepository.dropEndpointHashIndex();
+
+        assertFalse(subscriberRepository.existsConstraint("idx_notification_subscriber_endpoint_hash"));
+        assertFalse(subscriberRepository.existsIndex("idx_notification_subscriber_endpoint_hash"));
+        assertTrue(subscriberRepository.existsIndex("idx_notification_subscriber_endpoint_hash_producer"));
+
+        long otherProducerId = producerRepository.insertIfAbsent("other").orElseThrow();
+        long first = upsert("name", "https://push.example/a");
+        long other = subscriberRepository.upsert(otherProducerId, "name", "https://push.example/a",
+                P256DH, AUTH, null, NotificationSubscriber.hashEndpoint("https://push.example/a"));
+        assertNotEquals(first, other);
+        assertEquals(first, upsert("renamed", "https://push.example/a"));
+    }
+
+    @Test
+    void findRecipientsBindsTheNamesAsAnArrayAndMapsTheProjection() {
+        long a = upsert("a", "https://push.example/a");
+        upsert("b", "https://push.example/b");
+        long c = upsert("c", "https://push.example/c");
+
+        List<NotificationRecipient> recipients = subscriberRepository.findRecipients(
+                producerId, new String[]{"a", "c"}, "", 0, 10);
+
+        assertEquals(List.of(a, c), recipients.stream().map(NotificationRecipient::getId).toList());
+        NotificationRecipient first = recipients.get(0);
+        assertEquals("a", first.getName());
+        assertEquals(producerId, first.getProducerId());
+        assertEquals("https://push.example/a", first.getEndpoint());
+        assertArrayEquals(P256DH, first.getP256dh());
+        assertArrayEquals(AUTH, first.getAuth());
+        assertNull(first.getSubscriptionJson());
+    }
+
+    @Test
+    void findRecipientsPagesInNameAndIdOrder() {
+        long b1 = upsert("b", "https://push.example/1");
+        long a2 = upsert("a", "https://push.example/2");
+        long b3 = upsert("b", "https://push.example/3");
+        long a4 = upsert("a", "https://push.example/4");
+        String[] names = {"b", "a"};
+
+        List<NotificationRecipient> first = subscriberRepository.findRecipients(producerId, names, "", 0, 3);
+        assertEquals(List.of(a2, a4, b1), ids(first));
+        NotificationRecipient last = first.get(2);
+        assertEquals(List.of(b3), ids(subscriberRepository.findRecipients(
+                producerId, names, last.getName(), last.getId(), 3)));
+
+        List<RecipientKey> keys = subscriberRepository.findRecipientKeys(producerId, names, "a", a4, 2);
+        assertEquals(List.of(b1, b3), keys.stream().map(RecipientKey::getId).toList());
+        assertEquals(List.of("b", "b"), keys.stream().map(RecipientKey::getName).toList());
+        assertTrue(subscriberRepository.findRecipientKeys(producerId, names, "b", b3, 2).isEmpty());
+    }
+
+    @Test
+    void findRecipientPagesAreReadFromTheIndexWithoutSorting() throws NoSuchMethodException {
+        entityManager.getEntityManager().createNativeQuery("SET LOCAL enable_seqscan = off").executeUpdate();
+        for (String method : List.of("findRecipients", "findRecipientKeys")) {
+            String query = SubscriberRepository.class
+                    .getMethod(method, Long.class, String[].class, String.class, long.class, int.class)
+                    .getAnnotation(Query.class).value();
+            @SuppressWarnings("unchecked")
+            List<String> plan = entityManager.getEntityManager().createNativeQuery("EXPLAIN " + query)
+                    .setParameter("producerId", producerId)
+                    .setParameter("names", new String[]{"a", "b"})
+                    .setParameter("afterName", "a")
+                    .setParameter("afterId", 0L)
+                    .setParameter("limit", 10)
+                    .getResultList();
+
+            assertTrue(plan.stream().anyMatch(line -> line.contains("idx_notification_subscriber_producer_name")),
+                    method + ": " + plan);
+            assertTrue(plan.stream().noneMatch(line -> line.contains("Sort")), method + ": " + plan);
+        }
+    }
+
+    @Test
+    void findRecipientsSelectsTheSubscriptionJsonOfLegacySubscribers() {
+        long legacyId = saveLegacy("a", "https://push.example/a");
+
+        NotificationRecipient recipient = subscriberRepository.findRecipients(
+                producerId, new String[]{"a"}, "", 0, 10).get(0);
+
+        assertEquals(legacyId, recipient.getId());
+        assertNull(recipient.getEndpoint());
+        assertTrue(recipient.getSubscriptionJson().contains("https://push.example/a"));
+    }
+
+    @Test
+    void findMigratedPagesByIdAndSkipsUnmigratedSubscribers() {
+        long a = upsert("a", "https://push.example/a");
+        saveLegacy("b", "https://push.example/b");
+        long c = upsert("c", "https://push.example/c");
+
+        List<NotificationRecipient> first = subscriberRepository.findMigrated(0, 1);
+        assertEquals(List.of(a), ids(first));
+        assertEquals("https://push.example/a", first.get(0).getEndpoint());
+        assertArrayEquals(P256DH, first.get(0).getP256dh());
+        assertArrayEquals(AUTH, first.get(0).getAuth());
+        assertEquals(List.of(c), ids(subscriberRepository.findMigrated(a, 1)));
+        assertTrue(subscriberRepository.findMigrated(c, 1).isEmpty());
+    }
+
+    @Test
+    void migrateMovesTheSubscriptionIntoTheColumns() {
+        long legacyId = saveLegacy("a", "https://push.example/a");
+        upsert("b", "https://push.example/b");
+
+        List<NotificationRecipient> unmigrated = subscriberRepository.findUnmigrated(0, 10);
+        assertEquals(List.of(legacyId), ids(unmigrated));
+        assertEquals(producerId, unmigrated.get(0).getProducerId());
+        assertNotNull(unmigrated.get(0).getSubscriptionJson());
+
+        byte[] endpointHash = NotificationSubscriber.hashEndpoint("https://push.example/a");
+        assertEquals(1, subscriberRepository.migrate(
+                legacyId, "https://push.example/a", P256DH, AUTH, 1234L, endpointHash));
+
+        assertTrue(subscriberRepository.findUnmigrated(0, 10).isEmpty());
+        assertEquals(legacyId, subscriberRepository.findIdByEndpointHash(producerId, endpointHash).orElseThrow());
+        entityManager.clear();
+        NotificationSubscriber migrated = subscriberRepository.findById(legacyId).orElseThrow();
+        assertEquals("https://push.example/a", migrated.getEndpoint());
+        assertEquals(1234L, migrated.getExpirationTime());
+        assertNull(migrated.getSubscriptionJson());
+    }
+
+    private long upsert(String name, String endpoint) {
+        return subscriberRepository.upsert(
+                producerId, name, endpoint, P256DH, AUTH, null, NotificationSubscriber.hashEndpoint(endpoint));
+    }
+
+    /**
+     * Saves a subscriber the way it was saved before the subscription columns existed.
+     */
+    private long saveLegacy(String name, String endpoint) {
+        NotificationSubscriber subscriber = new NotificationSubscriber();
+        subscriber.setProducer(producerRepository.getReferenceById(producerId));
+        subscriber.setName(name);
+        subscriber.setSubscriptionJson("{\"endpoint\":\"" + endpoint + "\",\"expirationTime\":null,"
+                + "\"keys\":{\"p256dh\":\"p256dh\",\"auth\":\"auth\"}}");
+        return subscriberRepository.saveAndFlush(subscriber).getId();
+    }
+
+    private static List<Long> ids(List<NotificationRecipient> recipients) {
+        return recipients.stream().map(NotificationRecipient::getId).toList();
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.notification_service.services;
+
+import com.example.notification_service.models.NotificationProducer;
+import com.example.notification_service.models.NotificationSubscriber;
+import com.example.notification_service.repositories.ProducerRepository;
+import com.example.notification_service.repositories.SubscriberRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.context.transaction.TestTransaction;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Runs the producer merge against PostgreSQL, with the changelog mocked.
+ */
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=create-drop")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Testcontainers(disabledWithoutDocker = true)
+@Import(ProducerService.class)
+class ProducerServiceTest {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @MockitoBean
+    private SubscriptionChangelogService changelogService;
+
+    @Autowired
+    private ProducerService producerService;
+
+    @Autowired
+    private ProducerRepository producerRepository;
+
+    @Autowired
+    private SubscriberRepository subscriberRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @BeforeEach
+    void allowDuplicates() {
+        // Duplicates could only be created before the provider ID was unique. A committed merge leaves an index.
+        entityManager.getEntityManager().createNativeQuery(
+                "ALTER TABLE producer DROP CONSTRAINT IF EXISTS idx_producer_provider_id").executeUpdate();
+        entityManager.getEntityManager().createNativeQuery(
+                "DROP INDEX IF EXISTS idx_producer_provider_id").executeUpdate();
+    }
+
+    @AfterEach
+    void deleteCommittedRows() {
+        if (!TestTransaction.isActive()) {
+            subscriberRepository.deleteAllInBatch();
+            producerRepository.deleteAllInBatch();
+        }
+    }
+
+    @Test
+    void duplicatesAreMergedKeepingTheLatestSubscriberOfAnEndpoint() {
+        long first = insertProducer("alice");
+        long duplicate = insertProducer("alice");
+        long another = insertProducer("alice");
+        long bob = insertProducer("bob");
+        long replacedA = upsert(first, "https://push.example/a");
+        long keptA = upsert(duplicate, "https://push.example/a");
+        long replacedB = upsert(duplicate, "https://push.example/b");
+        long keptB = upsert(another, "https://push.example/b");
+        long keptC = upsert(another, "https://push.example/c");
+        long bobsA = upsert(bob, "https://push.example/a");
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+
+        producerService.afterSingletonsInstantiated();
+
+        assertEquals(Set.of(first, bob), Set.copyOf(producerRepository.findAll().stream()
+                .map(NotificationProducer::getId).toList()));
+        assertEquals(Set.of(keptA, keptB, keptC, bobsA), Set.copyOf(subscriberRepository.findAll().stream()
+                .map(NotificationSubscriber::getId).toList()));
+        for (long subscriberId : List.of(keptA, keptB, keptC)) {
+            assertEquals(first, subscriberRepository.findById(subscriberId).orElseThrow().getProducer().getId());
+        }
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Collection<Long>> tombstoned = ArgumentCaptor.forClass(Collection.class);
+        verify(changelogService).publishDeleted(tombstoned.capture());
+        assertEquals(Set.of(replacedA, replacedB), Set.copyOf(tombstoned.getValue()));
+        assertEquals(first, producerService.findId("alice").orElseThrow());
+    }
+
+    @Test
+    void tombstonesAreOnlyPublishedOnceTheMergeIsCommitted() {
+        long first = insertProducer("alice");
+        long duplicate = insertProducer("alice");
+        upsert(first, "https://push.example/a");
+        upsert(duplicate, "https://push.example/a");
+
+        producerService.afterSingletonsInstantiated();
+        verify(changelogService, never()).publishDeleted(any());
+
+        TestTransaction.end();
+        verify(changelogService, never()).publishDeleted(any());
+    }
+
+    @Test
+    void theMergeCanBeDisabled() {
+        long first = insertProducer("alice");
+        insertProducer("alice");
+        ProducerService target = AopTestUtils.getTargetObject(producerService);
+        ReflectionTestUtils.setField(target, "deduplicate", false);
+
+        producerService.afterSingletonsInstantiated();
+
+        assertEquals(2, producerRepository.count());
+        ReflectionTestUtils.setField(target, "deduplicate", true);
+        producerService.afterSingletonsInstantiated();
+        assertEquals(List.of(first), producerRepository.findAll().stream().map(NotificationProducer::getId).toList());
+    }
+
+    private long insertProducer(String providerId) {
+        return ((Number) entityManager.getEntityManager()
+                .createNativeQuery("INSERT INTO producer (id, provider_id) "
+                        + "VALUES (nextval('producer_seq'), :providerId) RETURNING id")
+                .setParameter("providerId", providerId)
+                .getSingleResult()).longValue();
+    }
+
+    private long upsert(long producerId, String endpoint) {
+        return subscriberRepository.upsert(producerId, "name", endpoint,
+                new byte[65], new byte[16], null, NotificationSubscriber.hashEndpoint(endpoint));
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.notification_service.services;
+
+import com.example.notification_service.models.NotificationSubscriber;
+import com.example.notification_service.repositories.ProducerRepository;
+import com.example.notification_service.repositories.SubscriberRepository;
+import nl.martijndwars.webpush.Base64Encoder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Runs the backfill against PostgreSQL, with the changelog mocked.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "notification.backfill.page-size=2"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Testcontainers(disabledWithoutDocker = true)
+@Import({SubscriptionBackfillService.class, JacksonAutoConfiguration.class})
+class SubscriptionBackfillServiceTest {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static final String P256DH = Base64Encoder.encodeUrl(new byte[65]);
+    private static final String AUTH = Base64Encoder.encodeUrl(new byte[16]);
+
+    @MockitoBean
+    private SubscriptionChangelogService changelogService;
+
+    @Autowired
+    private SubscriptionBackfillService backfillService;
+
+    @Autowired
+    private SubscriberRepository subscriberRepository;
+
+    @Autowired
+    private ProducerRepository producerRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    private long producerId;
+    private long otherProducerId;
+
+    @BeforeEach
+    void createProducers() {
+        producerId = producerRepository.insertIfAbsent("producer").orElseThrow();
+        otherProducerId = producerRepository.insertIfAbsent("other").orElseThrow();
+    }
+
+    @Test
+    void duplicatesAreDeletedOnlyWithinAProducer() {
+        long older = saveLegacy(producerId, "https://push.example/a");
+        long newer = saveLegacy(producerId, "https://push.example/a");
+        long other = saveLegacy(otherProducerId, "https://push.example/a");
+
+        backfillService.backfill();
+
+        entityManager.clear();
+        assertFalse(subscriberRepository.existsById(older));
+        assertEquals("https://push.example/a", subscriberRepository.findById(newer).orElseThrow().getEndpoint());
+        assertEquals("https://push.example/a", subscriberRepository.findById(other).orElseThrow().getEndpoint());
+        assertTrue(subscriberRepository.findUnmigrated(0, 10).isEmpty());
+        verify(changelogService).publishDeleted(List.of(older));
+    }
+
+    @Test
+    void migratedSubscribersArePublishedToTheChangelog() {
+        long first = saveLegacy(producerId, "https://push.example/a");
+        long second = saveLegacy(producerId, "https://push.example/b");
+        long third = saveLegacy(otherProducerId, "https://push.example/c");
+
+        backfillService.backfill();
+
+        ArgumentCaptor<NotificationSubscriber> published = ArgumentCaptor.forClass(NotificationSubscriber.class);
+        verify(changelogService, times(3)).publishSaved(published.capture());
+        assertEquals(List.of(first, second, third),
+                published.getAllValues().stream().map(NotificationSubscriber::getId).toList());
+        NotificationSubscriber subscriber = published.getAllValues().get(0);
+        assertEquals("https://push.example/a", subscriber.getEndpoint());
+        assertArrayEquals(new byte[65], subscriber.getP256dh());
+        assertArrayEquals(new byte[16], subscriber.getAuth());
+    }
+
+    @Test
+    void aReplacedDuplicateIsTombstonedAfterItWasPublished() {
+        long older = saveLegacy(producerId, "https://push.example/a");
+        long newer = saveLegacy(producerId, "https://push.example/a");
+
+        backfillService.backfill();
+
+        // The older subscriber is migrated first, the newer one then replaces it.
+        ArgumentCaptor<NotificationSubscriber> published = ArgumentCaptor.forClass(NotificationSubscriber.class);
+        InOrder changelog = inOrder(changelogService);
+        changelog.verify(changelogService).publishSaved(published.capture());
+        changelog.verify(changelogService).publishDeleted(List.of(older));
+        changelog.verify(changelogService).publishSaved(published.capture());
+        assertEquals(List.of(older, newer), published.getAllValues().stream().map(NotificationSubscriber::getId).toList());
+    }
+
+    @Test
+    void deleteUnmigratedMatchesTheWholeEndpoint() {
+        long legacy = saveLegacy(producerId, "https://push.example/a");
+        long other = saveLegacy(otherProducerId, "https://push.example/a");
+        long longer = saveLegacy(producerId, "https://push.example/ab");
+
+        assertEquals(Set.of(legacy, other), Set.copyOf(backfillService.deleteUnmigrated("https://push.example/a")));
+
+        entityManager.clear();
+        assertEquals(List.of(longer), subscriberRepository.findAll().stream().map(NotificationSubscriber::getId).toList());
+    }
+
+    @Test
+    void theUniqueIndexAllowsAnEndpointPerProducer() {
+        useUniqueEndpointHash();
+
+        backfillService.afterSingletonsInstantiated();
+
+        assertFalse(subscriberRepository.existsConstraint("idx_notification_subscriber_endpoint_hash"));
+        assertTrue(subscriberRepository.existsIndex("idx_notification_subscriber_endpoint_hash_producer"));
+        byte[] endpointHash = NotificationSubscriber.hashEndpoint("https://push.example/a");
+        subscriberRepository.upsert(producerId, "a", "https://push.example/a", new byte[65], new byte[16], null, endpointHash);
+        subscriberRepository.upsert(otherProducerId, "a", "https://push.example/a", new byte[65], new byte[16], null, endpointHash);
+        assertEquals(2, subscriberRepository.count());
+    }
+
+    @Test
+    void theIndexesAreLeftAsTheyAreWhenTheBackfillIsDisabled() {
+        useUniqueEndpointHash();
+        SubscriptionBackfillService target = AopTestUtils.getTargetObject(backfillService);
+        ReflectionTestUtils.setField(target, "enabled", false);
+        try {
+            backfillService.afterSingletonsInstantiated();
+        } finally {
+            ReflectionTestUtils.setField(target, "enabled", true);
+        }
+
+        assertTrue(subscriberRepository.existsConstraint("idx_notification_subscriber_endpoint_hash"));
+        assertFalse(subscriberRepository.existsIndex("idx_notification_subscriber_endpoint_hash_producer"));
+    }
+
+    /**
+     * Switches to the schema of databases from before the endpoint hash was unique per producer.
+     */
+    private void useUniqueEndpointHash() {
+        entityManager.getEntityManager().createNativeQuery("""
+                ALTER TABLE notification_subscriber
+                DROP CONSTRAINT idx_notification_subscriber_endpoint_hash_producer,
+                ADD CONSTRAINT idx_notification_subscriber_endpoint_hash UNIQUE (endpoint_hash)
+                """).executeUpdate();
+    }
+
+    /**
+     * Saves a subscriber the way it was saved before the subscription columns existed.
+     */
+    private long saveLegacy(long producerId, String endpoint) {
+        NotificationSubscriber subscriber = new NotificationSubscriber();
+        subscriber.setProducer(producerRepository.getReferenceById(producerId));
+        subscriber.setName("name");
+        subscriber.setSubscriptionJson("{\"endpoint\":\"" + endpoint + "\",\"expirationTime\":null,"
+                + "\"keys\":{\"p256dh\":\"" + P256DH + "\",\"auth\":\"" + AUTH + "\"}}");
+        return subscriberRepository.saveAndFlush(subscriber).getId();
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.notification_service.services;
+
+import com.example.notification_service.configurations.KafkaConfiguration;
+import com.example.notification_service.models.NotificationSubscriber;
+import com.example.notification_service.repositories.ProducerRepository;
+import com.example.notification_service.repositories.SubscriberRepository;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.NetworkException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.mock.MockProducerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the changelog publishing against PostgreSQL, with a mock Kafka producer.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "notification.changelog.bootstrap-page-size=2"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Testcontainers(disabledWithoutDocker = true)
+@Import({SubscriptionChangelogService.class, SubscriptionChangelogServiceTest.MockKafka.class})
+class SubscriptionChangelogServiceTest {
+
+    @Container
+    @ServiceConnection
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static final byte[] P256DH = new byte[65];
+    private static final byte[] AUTH = new byte[16];
+
+    @Autowired
+    private SubscriptionChangelogService changelogService;
+
+    @Autowired
+    private SubscriberRepository subscriberRepository;
+
+    @Autowired
+    private ProducerRepository producerRepository;
+
+    @Autowired
+    private MockProducer<String, byte[]> producer;
+
+    private long producerId;
+
+    @BeforeEach
+    void createProducer() {
+        producerId = producerRepository.insertIfAbsent("producer").orElseThrow();
+        producer.clear();
+        producer.sendException = null;
+    }
+
+    @Test
+    void republishesTheSubscriptionOfAFailedPublish() {
+        long id = upsert("https://push.example/a");
+        NotificationSubscriber subscriber = subscriberRepository.findById(id).orElseThrow();
+        producer.sendException = new NetworkException("broker disconnected");
+        long failed = changelogService.getFailedPublishes();
+
+        changelogService.publishSaved(subscriber);
+        producer.sendException = null;
+        assertEquals(failed + 1, changelogService.getFailedPublishes());
+        assertTrue(producer.history().isEmpty());
+
+        changelogService.republishFailed();
+
+        ProducerRecord<String, byte[]> republished = producer.history().get(0);
+        assertEquals(String.valueOf(id), republished.key());
+        assertNotNull(republished.value());
+        changelogService.republishFailed();
+        assertEquals(1, producer.history().size());
+    }
+
+    @Test
+    void republishesATombstoneForAFailedPublishOfADeletedSubscriber() {
+        long id = upsert("https://push.example/a");
+        NotificationSubscriber subscriber = subscriberRepository.findById(id).orElseThrow();
+        producer.sendException = new NetworkException("broker disconnected");
+        changelogService.publishSaved(subscriber);
+        producer.sendException = null;
+        subscriberRepository.deleteByEndpointHash(NotificationSubscriber.hashEndpoint("https://push.example/a"));
+
+        changelogService.republishFailed();
+
+        ProducerRecord<String, byte[]> republished = producer.history().get(0);
+        assertEquals(String.valueOf(id), republished.key());
+        assertNull(republished.value());
+    }
+
+    @Test
+    void bootstrapPublishesTheMigratedSubscribersPageByPage() {
+        long a = upsert("https://push.example/a");
+        long b = upsert("https://push.example/b");
+        saveLegacy();
+        long c = upsert("https://push.example/c");
+        ReflectionTestUtils.setField(changelogService, "bootstrap", true);
+
+        changelogService.bootstrap();
+
+        assertEquals(List.of(String.valueOf(a), String.valueOf(b), String.valueOf(c)),
+                producer.history().stream().map(ProducerRecord::key).toList());
+        assertEquals(List.of(KafkaConfiguration.SUBSCRIPTIONS_CHANGELOG_TOPIC),
+                producer.history().stream().map(ProducerRecord::topic).distinct().toList());
+    }
+
+    private long upsert(String endpoint) {
+        return subscriberRepository.upsert(
+                producerId, "name", endpoint, P256DH, AUTH, null, NotificationSubscriber.hashEndpoint(endpoint));
+    }
+
+    private void saveLegacy() {
+        NotificationSubscriber subscriber = new NotificationSubscriber();
+        subscriber.setProducer(producerRepository.getReferenceById(producerId));
+        subscriber.setName("legacy");
+        subscriber.setSubscriptionJson("{\"endpoint\":\"https://push.example/legacy\"}");
+        subscriberRepository.saveAndFlush(subscriber);
+    }
+
+    @TestConfiguration
+    static class MockKafka {
+
+        @Bean
+        MockProducer<String, byte[]> producer() {
+            return new MockProducer<>(true, null, new StringSerializer(), new ByteArraySerializer()) {
+                @Override
+                public void close(Duration timeout) {
+                    // KafkaTemplate closes the producer after every send, and the factory hands out this one.
+                }
+            };
+        }
+
+        @Bean
+        ProducerFactory<String, byte[]> producerFactory(MockProducer<String, byte[]> producer) {
+            return new MockProducerFactory<>(() -> producer) {
+                @Override
+                public ProducerFactory<String, byte[]> copyWithConfigurationOverride(Map<String, Object> overrides) {
+                    return this;
+                }
+            };
+        }
+    }
+}
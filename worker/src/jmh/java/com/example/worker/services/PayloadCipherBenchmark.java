@@ -0,0 +1,97 @@
+package com.example.worker.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encryption of one push payload by each {@link PayloadCipher}. With
+ * {@code keys=pooled} every operation takes the same pre-generated ephemeral
+ * key pair, as when the pool keeps up; with {@code keys=generated} the pool is
+ * empty and every operation generates its key pair inline, as a send thread
+ * does once the pool has run dry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PayloadCipherBenchmark {
+
+    @Param({"bouncycastle", "jdk"})
+    private String provider;
+
+    @Param({"pooled", "generated"})
+    private String keys;
+
+    @Param({"64", "1024"})
+    private int payloadLength;
+
+    private EphemeralKeyPool keyPool;
+    private PayloadCipher cipher;
+    private KeyPair userKeys;
+    private byte[] userAuth;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        Security.addProvider(new BouncyCastleProvider());
+        keyPool = "pooled".equals(keys) ? new FixedKeyPool() : new EphemeralKeyPool(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(keyPool, "cryptoProvider", provider);
+        ReflectionTestUtils.setField(keyPool, "capacity", 0);
+        ReflectionTestUtils.setField(keyPool, "refillThreshold", 0.75);
+        ReflectionTestUtils.invokeMethod(keyPool, "init");
+        if (keyPool instanceof FixedKeyPool fixed) {
+            fixed.keyPair = fixed.generate();
+        }
+        cipher = "jdk".equals(provider) ? new JdkPayloadCipher(keyPool) : new BouncyCastlePayloadCipher(keyPool);
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("ECDH", BouncyCastleProvider.PROVIDER_NAME);
+        generator.initialize(ECNamedCurveTable.getParameterSpec("prime256v1"));
+        userKeys = generator.generateKeyPair();
+        userAuth = new byte[16];
+        payload = new byte[payloadLength];
+    }
+
+    @TearDown
+    public void tearDown() {
+        ReflectionTestUtils.invokeMethod(keyPool, "shutdown");
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws GeneralSecurityException {
+        return cipher.encrypt(payload, userKeys.getPublic(), userAuth);
+    }
+
+    private static final class FixedKeyPool extends EphemeralKeyPool {
+
+        private KeyPair keyPair;
+
+        private FixedKeyPool() {
+            super(new SimpleMeterRegistry());
+        }
+
+        private KeyPair generate() throws GeneralSecurityException {
+            return super.take();
+        }
+
+        @Override
+        public KeyPair take() {
+            return keyPair;
+        }
+    }
+}
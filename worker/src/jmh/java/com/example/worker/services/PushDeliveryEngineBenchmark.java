@@ -0,0 +1,146 @@
+package com.example.worker.services;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.martijndwars.webpush.Base64Encoder;
+import nl.martijndwars.webpush.Notification;
+import nl.martijndwars.webpush.Utils;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.interfaces.ECPrivateKey;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link PushDeliveryEngine} against a local push service that
+ * answers 201 after a fixed latency, with the HTTP client on platform threads
+ * or on virtual threads. Each operation delivers a burst of pushes to one host
+ * and waits for all responses, so the score is pushes per second.
+ * {@code virtualThreads=true} needs a Java 21 runtime: run with
+ * {@code gradle jmh -PjavaVersion=21 -PjmhIncludes=PushDeliveryEngineBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PushDeliveryEngineBenchmark {
+
+    private static final int PUSHES = 1000;
+    private static final byte[] PAYLOAD = "{\"title\":\"Benchmark\",\"body\":\"Hello\"}".getBytes();
+
+    @Param({"false", "true"})
+    private boolean virtualThreads;
+
+    @Param({"20"})
+    private int latencyMillis;
+
+    private HttpServer pushService;
+    private ScheduledExecutorService responder;
+    private AnnotationConfigApplicationContext context;
+    private PushDeliveryEngine engine;
+    private Notification[] notifications;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GeneralSecurityException {
+        if (virtualThreads && Runtime.version().feature() < 21) {
+            throw new IllegalStateException("virtualThreads=true needs Java 21, run with -PjavaVersion=21");
+        }
+        Security.addProvider(new BouncyCastleProvider());
+        startPushService();
+
+        KeyPair vapidKeys = generateKeyPair();
+        context = new AnnotationConfigApplicationContext();
+        context.getBeanFactory().setConversionService(ApplicationConversionService.getSharedInstance());
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", Map.of(
+                "key.public", Base64Encoder.encodeUrlWithoutPadding(Utils.encode((ECPublicKey) vapidKeys.getPublic())),
+                "key.private", Base64Encoder.encodeUrlWithoutPadding(Utils.encode((ECPrivateKey) vapidKeys.getPrivate())),
+                "spring.threads.virtual.enabled", String.valueOf(virtualThreads),
+                "worker.delivery.adaptive.enabled", "false",
+                "worker.delivery.host-rate", "1000000",
+                "worker.delivery.host-burst", "1000000")));
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        context.register(EphemeralKeyPool.class, BouncyCastlePayloadCipher.class, VapidHeaderCache.class,
+                PushRequestFactory.class, PushDeliveryEngine.class);
+        context.refresh();
+        engine = context.getBean(PushDeliveryEngine.class);
+
+        KeyPair userKeys = generateKeyPair();
+        String endpoint = "http://127.0.0.1:" + pushService.getAddress().getPort() + "/push/";
+        notifications = new Notification[PUSHES];
+        for (int i = 0; i < PUSHES; i++) {
+            notifications[i] = new Notification(endpoint + i, userKeys.getPublic(), new byte[16], PAYLOAD);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        pushService.stop(0);
+        responder.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PUSHES)
+    public void deliver() {
+        CompletableFuture<?>[] pushes = new CompletableFuture<?>[PUSHES];
+        for (int i = 0; i < PUSHES; i++) {
+            pushes[i] = engine.deliver(notifications[i]);
+        }
+        CompletableFuture.allOf(pushes).join();
+    }
+
+    /**
+     * Starts a push service that answers every request after the latency
+     * without holding a thread while it waits.
+     */
+    private void startPushService() throws IOException {
+        responder = Executors.newSingleThreadScheduledExecutor();
+        pushService = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        pushService.setExecutor(Executors.newFixedThreadPool(2));
+        pushService.createContext("/push/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            responder.schedule(() -> {
+                try {
+                    exchange.sendResponseHeaders(201, -1);
+                } catch (IOException e) {
+                    // The engine counts the failed push.
+                } finally {
+                    exchange.close();
+                }
+            }, latencyMillis, TimeUnit.MILLISECONDS);
+        });
+        pushService.start();
+    }
+
+    private static KeyPair generateKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("ECDH", BouncyCastleProvider.PROVIDER_NAME);
+        generator.initialize(ECNamedCurveTable.getParameterSpec("prime256v1"));
+        return generator.generateKeyPair();
+    }
+}
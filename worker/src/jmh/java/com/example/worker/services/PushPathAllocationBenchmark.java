@@ -0,0 +1,79 @@
+package com.example.worker.services;
+
+import com.example.worker.serialization.NotificationPayloadWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.martijndwars.webpush.Utils;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-push payload and key decoding costs of {@link WebPushService}, before
+ * and after {@link NotificationPayloadWriter} and {@link PublicKeyCache}. Run
+ * with {@code -PjmhProfilers=gc} to get the bytes allocated per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PushPathAllocationBenchmark {
+
+    private static final String TITLE = "Новое уведомление";
+    private static final String MESSAGE = "Your order #12345 has been shipped and will arrive on Monday.";
+
+    private ObjectMapper mapper;
+    private NotificationPayloadWriter payloadWriter;
+    private PublicKeyCache publicKeyCache;
+    private byte[] p256dh;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        mapper = new ObjectMapper();
+        payloadWriter = new NotificationPayloadWriter(mapper.getFactory(), TITLE);
+        publicKeyCache = new PublicKeyCache(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(publicKeyCache, "capacity", 100_000);
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("ECDH", BouncyCastleProvider.PROVIDER_NAME);
+        generator.initialize(ECNamedCurveTable.getParameterSpec("prime256v1"));
+        p256dh = Utils.encode((ECPublicKey) generator.generateKeyPair().getPublic());
+        publicKeyCache.get(p256dh);
+    }
+
+    @Benchmark
+    public byte[] objectNodePayload() throws IOException {
+        ObjectNode payload = mapper.createObjectNode();
+        payload.put("title", TITLE);
+        payload.put("body", MESSAGE);
+        return mapper.writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public byte[] writerPayload() throws IOException {
+        return payloadWriter.write(MESSAGE);
+    }
+
+    @Benchmark
+    public PublicKey decodedPublicKey() throws GeneralSecurityException {
+        return Utils.loadPublicKey(p256dh);
+    }
+
+    @Benchmark
+    public PublicKey cachedPublicKey() throws GeneralSecurityException {
+        return publicKeyCache.get(p256dh);
+    }
+}
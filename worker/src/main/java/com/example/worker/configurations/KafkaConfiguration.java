@@ -0,0 +1,213 @@
+package com.example.worker.configurations;
+
+import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.listener.ContainerProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration for Kafka topics and listener containers.
+ */
+@Configuration
+public class KafkaConfiguration {
+
+    public static final String WORKER_TOPIC = "worker_topic";
+    public static final String SUBSCRIPTION_FEEDBACK_TOPIC = "subscription_feedback_topic";
+    public static final String SUBSCRIPTIONS_CHANGELOG_TOPIC = "subscriptions_changelog";
+    public static final String DELIVERY_REPORT_TOPIC = "delivery_report_topic";
+    public static final String BYTE_ARRAY_VALUE_DESERIALIZER =
+            "value.deserializer=org.apache.kafka.common.serialization.ByteArrayDeserializer";
+    public static final String DEAD_LETTER_TOPIC = WORKER_TOPIC + "-dlt";
+
+    private static final String RETRY_TOPIC_PREFIX = WORKER_TOPIC + "-retry-";
+
+    /**
+     * Returns the name of a retry tier topic.
+     *
+     * @param tier the zero-based retry tier
+     * @return the topic name
+     */
+    public static String retryTopic(int tier) {
+        return RETRY_TOPIC_PREFIX + tier;
+    }
+
+    /**
+     * Provisions the worker topic instead of relying on broker auto-creation,
+     * so its partition count matches the listener concurrency.
+     *
+     * @param partitions the number of partitions
+     * @param replicas   the replication factor
+     * @return the topic definition picked up by {@code KafkaAdmin}
+     */
+    @Bean
+    public NewTopic workerTopic(
+            @Value("${kafka.topics.worker.partitions:60}") int partitions,
+            @Value("${kafka.topics.worker.replicas:1}") short replicas) {
+        return TopicBuilder.name(WORKER_TOPIC)
+                .partitions(partitions)
+                .replicas(replicas)
+                .build();
+    }
+
+    /**
+     * Provisions the topic that expired subscriptions are reported to.
+     *
+     * @param partitions the number of partitions
+     * @param replicas   the replication factor
+     * @return the topic definition picked up by {@code KafkaAdmin}
+     */
+    @Bean
+    public NewTopic subscriptionFeedbackTopic(
+            @Value("${kafka.topics.feedback.partitions:6}") int partitions,
+            @Value("${kafka.topics.feedback.replicas:1}") short replicas) {
+        return TopicBuilder.name(SUBSCRIPTION_FEEDBACK_TOPIC)
+                .partitions(partitions)
+                .replicas(replicas)
+                .build();
+    }
+
+    /**
+     * Provisions the topic that delivery outcomes of notification jobs are reported to.
+     *
+     * @param partitions the number of partitions
+     * @param replicas   the replication factor
+     * @return the topic definition picked up by {@code KafkaAdmin}
+     */
+    @Bean
+    public NewTopic deliveryReportTopic(
+            @Value("${kafka.topics.delivery-report.partitions:6}") int partitions,
+            @Value("${kafka.topics.delivery-report.replicas:1}") short replicas) {
+        return TopicBuilder.name(DELIVERY_REPORT_TOPIC)
+                .partitions(partitions)
+                .replicas(replicas)
+                .build();
+    }
+
+    /**
+     * Provisions the log-compacted topic that notification_service publishes
+     * subscriber inserts and deletes to.
+     *
+     * @param partitions the number of partitions
+     * @param replicas   the replication factor
+     * @return the topic definition picked up by {@code KafkaAdmin}
+     */
+    @Bean
+    public NewTopic subscriptionsChangelogTopic(
+            @Value("${kafka.topics.changelog.partitions:6}") int partitions,
+            @Value("${kafka.topics.changelog.replicas:1}") short replicas) {
+        return TopicBuilder.name(SUBSCRIPTIONS_CHANGELOG_TOPIC)
+                .partitions(partitions)
+                .replicas(replicas)
+                .compact()
+                .build();
+    }
+
+    /**
+     * Provisions one retry topic per configured retry delay and the dead-letter
+     * topic for pushes that cannot be delivered.
+     *
+     * @param delays     the retry delays, one tier each
+     * @param partitions the number of partitions of each topic
+     * @param replicas   the replication factor
+     * @return the topic definitions picked up by {@code KafkaAdmin}
+     */
+    @Bean
+    public KafkaAdmin.NewTopics retryTopics(
+            @Value("${worker.retry.delays:10s,1m,10m}") List<Duration> delays,
+            @Value("${kafka.topics.retry.partitions:6}") int partitions,
+            @Value("${kafka.topics.retry.replicas:1}") short replicas) {
+        List<NewTopic> topics = new ArrayList<>();
+        for (int tier = 0; tier < delays.size(); tier++) {
+            topics.add(TopicBuilder.name(retryTopic(tier)).partitions(partitions).replicas(replicas).build());
+        }
+        topics.add(TopicBuilder.name(DEAD_LETTER_TOPIC).partitions(partitions).replicas(replicas).build());
+        return new KafkaAdmin.NewTopics(topics.toArray(NewTopic[]::new));
+    }
+
+    /**
+     * Configures record listeners for asynchronous delivery: records are
+     * acknowledged manually once their push completes, and acknowledgments that
+     * arrive out of order are held back until the gap before them is filled.
+     *
+     * @param configurer      the Spring Boot defaults configurer
+     * @param consumerFactory the consumer factory
+     * @return the listener container factory
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> kafkaListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> consumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, consumerFactory);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setAsyncAcks(true);
+        return factory;
+    }
+
+    /**
+     * Configures batch listeners: each listener call receives a whole poll and
+     * the offsets of the batch are committed once, after the listener returns.
+     *
+     * @param configurer      the Spring Boot defaults configurer
+     * @param consumerFactory the consumer factory
+     * @return the batch listener container factory
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> batchKafkaListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> consumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, consumerFactory);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.BATCH);
+        return factory;
+    }
+
+    /**
+     * Configures retry tier listeners: records are acknowledged manually and in
+     * order, so a record that is not due yet can be negatively acknowledged and
+     * redelivered after a pause.
+     *
+     * @param configurer      the Spring Boot defaults configurer
+     * @param consumerFactory the consumer factory
+     * @return the retry listener container factory
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> retryKafkaListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> consumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, consumerFactory);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        return factory;
+    }
+
+    /**
+     * Configures the subscriptions changelog listener. Its records are never
+     * acknowledged: every worker reads all partitions without joining a group,
+     * and the subscription store keeps track of the applied offsets instead.
+     *
+     * @param configurer      the Spring Boot defaults configurer
+     * @param consumerFactory the consumer factory
+     * @return the changelog listener container factory
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> changelogKafkaListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> consumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, consumerFactory);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        return factory;
+    }
+}
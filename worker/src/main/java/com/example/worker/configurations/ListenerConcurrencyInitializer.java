@@ -0,0 +1,99 @@
+package com.example.worker.configurations;
+
+import com.example.worker.services.WebPushService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Aligns the worker topic listener concurrency with the real partition count
+ * of the topic before the listener containers start. Consumers beyond the
+ * partition count would sit idle, fewer would leave partitions to share a thread.
+ */
+@Slf4j
+@Component
+public class ListenerConcurrencyInitializer implements SmartLifecycle {
+
+    private static final List<String> WORKER_TOPIC_LISTENERS = List.of(
+            WebPushService.RECORD_LISTENER_ID,
+            WebPushService.BATCH_LISTENER_ID);
+
+    private final KafkaAdmin kafkaAdmin;
+    private final KafkaListenerEndpointRegistry registry;
+
+    @Value("${worker.listener.concurrency:60}")
+    private int configuredConcurrency;
+
+    private volatile boolean running;
+
+    @Autowired
+    public ListenerConcurrencyInitializer(KafkaAdmin kafkaAdmin, KafkaListenerEndpointRegistry registry) {
+        this.kafkaAdmin = kafkaAdmin;
+        this.registry = registry;
+    }
+
+    /**
+     * Reads the partition count of the worker topic and applies it as the
+     * concurrency of the worker topic listeners.
+     */
+    @Override
+    public void start() {
+        int concurrency = resolveConcurrency();
+        for (String id : WORKER_TOPIC_LISTENERS) {
+            MessageListenerContainer container = registry.getListenerContainer(id);
+            if (container instanceof ConcurrentMessageListenerContainer<?, ?> concurrent) {
+                concurrent.setConcurrency(concurrency);
+            }
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Runs before the listener containers, which start in the default container phase.
+     *
+     * @return the lifecycle phase
+     */
+    @Override
+    public int getPhase() {
+        return AbstractMessageListenerContainer.DEFAULT_PHASE - 1;
+    }
+
+    private int resolveConcurrency() {
+        int partitions;
+        try {
+            TopicDescription description = kafkaAdmin.describeTopics(KafkaConfiguration.WORKER_TOPIC)
+                    .get(KafkaConfiguration.WORKER_TOPIC);
+            partitions = description.partitions().size();
+        } catch (RuntimeException e) {
+            log.warn("Could not describe {}, keeping listener concurrency {}",
+                    KafkaConfiguration.WORKER_TOPIC, configuredConcurrency, e);
+            return configuredConcurrency;
+        }
+
+        if (partitions != configuredConcurrency) {
+            log.warn("{} has {} partitions but listener concurrency is configured as {}, using {}",
+                    KafkaConfiguration.WORKER_TOPIC, partitions, configuredConcurrency, partitions);
+        }
+        return partitions;
+    }
+}
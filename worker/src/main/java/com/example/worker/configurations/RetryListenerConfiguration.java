@@ -0,0 +1,94 @@
+package com.example.worker.configurations;
+
+import com.example.worker.services.WebPushService;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.annotation.KafkaListenerConfigurer;
+import org.springframework.kafka.config.KafkaListenerContainerFactory;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistrar;
+import org.springframework.kafka.config.MethodKafkaListenerEndpoint;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.messaging.handler.annotation.support.DefaultMessageHandlerMethodFactory;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Registers a retry listener container for each retry tier topic. A record
+ * that is not due yet pauses the consumer it was polled by, so tiers must not
+ * share consumers: a record of the 10 minute tier would otherwise hold back the
+ * partitions of the 10 second tier assigned to the same consumer.
+ */
+@Configuration
+public class RetryListenerConfiguration implements KafkaListenerConfigurer {
+
+    private final WebPushService webPushService;
+    private final KafkaListenerContainerFactory<?> retryContainerFactory;
+    private final BeanFactory beanFactory;
+
+    @Value("${worker.retry.delays:10s,1m,10m}")
+    private List<Duration> delays;
+
+    @Value("${worker.retry.concurrency:3}")
+    private int concurrency;
+
+    @Autowired
+    public RetryListenerConfiguration(
+            WebPushService webPushService,
+            @Qualifier("retryKafkaListenerContainerFactory") KafkaListenerContainerFactory<?> retryContainerFactory,
+            BeanFactory beanFactory) {
+        this.webPushService = webPushService;
+        this.retryContainerFactory = retryContainerFactory;
+        this.beanFactory = beanFactory;
+    }
+
+    /**
+     * Returns the ID of the listener container of a retry tier.
+     *
+     * @param tier the zero-based retry tier
+     * @return the listener container ID
+     */
+    public static String listenerId(int tier) {
+        return WebPushService.RETRY_LISTENER_ID + "-" + tier;
+    }
+
+    /**
+     * Registers {@link WebPushService#retryNotification} with
+     * {@code worker.retry.concurrency} consumers for every configured retry delay.
+     *
+     * @param registrar the registrar of the listener endpoints
+     */
+    @Override
+    public void configureKafkaListeners(KafkaListenerEndpointRegistrar registrar) {
+        Method listener = ReflectionUtils.findMethod(
+                WebPushService.class, "retryNotification", ConsumerRecord.class, Acknowledgment.class);
+        DefaultMessageHandlerMethodFactory handlerMethodFactory = new DefaultMessageHandlerMethodFactory();
+        handlerMethodFactory.setBeanFactory(beanFactory);
+        handlerMethodFactory.afterPropertiesSet();
+
+        Properties consumerProperties = new Properties();
+        consumerProperties.setProperty(
+                ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+
+        for (int tier = 0; tier < delays.size(); tier++) {
+            MethodKafkaListenerEndpoint<String, byte[]> endpoint = new MethodKafkaListenerEndpoint<>();
+            endpoint.setId(listenerId(tier));
+            endpoint.setTopics(KafkaConfiguration.retryTopic(tier));
+            endpoint.setBean(webPushService);
+            endpoint.setMethod(listener);
+            endpoint.setMessageHandlerMethodFactory(handlerMethodFactory);
+            endpoint.setConcurrency(concurrency);
+            endpoint.setConsumerProperties(consumerProperties);
+            registrar.registerEndpoint(endpoint, retryContainerFactory);
+        }
+    }
+}
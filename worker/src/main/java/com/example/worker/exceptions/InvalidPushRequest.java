@@ -0,0 +1,13 @@
+package com.example.worker.exceptions;
+
+
+/**
+ * Thrown when a push request cannot be built from the consumed record, for
+ * example because of an invalid endpoint or subscription keys. Retrying such
+ * a record can never succeed.
+ */
+public class InvalidPushRequest extends Exception {
+    public InvalidPushRequest(Throwable cause) {
+        super(cause);
+    }
+}
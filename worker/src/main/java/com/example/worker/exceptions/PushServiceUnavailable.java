@@ -0,0 +1,21 @@
+package com.example.worker.exceptions;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a push is rejected without being sent because the circuit for
+ * its push-service host is open. The push can be retried once the circuit has
+ * been given time to close.
+ */
+@Getter
+public class PushServiceUnavailable extends Exception {
+
+    private final Duration retryAfter;
+
+    public PushServiceUnavailable(String host, Duration retryAfter) {
+        super("Circuit open for push service " + host);
+        this.retryAfter = retryAfter;
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.worker.models;
+
+/**
+ * How a push ended up after the push service answered and the record was routed.
+ */
+public enum DeliveryOutcome {
+    /** The push service accepted the push. */
+    DELIVERED,
+    /** The push service reported the subscription as gone. */
+    EXPIRED,
+    /** The push was republished to a retry tier and its outcome is still open. */
+    RETRYING,
+    /** The push was dead-lettered. */
+    FAILED
+}
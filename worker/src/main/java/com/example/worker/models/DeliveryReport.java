@@ -0,0 +1,20 @@
+package com.example.worker.models;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Final push outcomes of one notification job counted since the previous
+ * report for the job.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class DeliveryReport {
+    String jobId;
+    long delivered;
+    long failed;
+    long expired;
+}
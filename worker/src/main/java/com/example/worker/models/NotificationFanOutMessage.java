@@ -0,0 +1,18 @@
+package com.example.worker.models;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Worker topic record that sends one message to a chunk of subscribers. The
+ * worker resolves the subscriber IDs against its replicated subscription store.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class NotificationFanOutMessage {
+    String message;
+    long[] subscriberIds;
+}
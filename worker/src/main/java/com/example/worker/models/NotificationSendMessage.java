@@ -0,0 +1,21 @@
+package com.example.worker.models;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Worker topic record in the binary wire format: the subscription is carried
+ * as its endpoint and raw key bytes instead of the subscription JSON.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class NotificationSendMessage {
+    Long subscriberId;
+    String endpoint;
+    byte[] p256dh;
+    byte[] auth;
+    String message;
+}
@@ -0,0 +1,20 @@
+package com.example.worker.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+
+@Getter
+@AllArgsConstructor
+@ToString
+public class PushResult {
+    private final String endpoint;
+    private final int statusCode;
+    private final Duration retryAfter;
+
+    public boolean isSuccessful() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.worker.models;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Push subscription of a subscriber as replicated into the worker.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class StoredSubscription {
+    String endpoint;
+    byte[] p256dh;
+    byte[] auth;
+}
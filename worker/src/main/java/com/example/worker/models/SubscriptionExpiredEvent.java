@@ -0,0 +1,15 @@
+package com.example.worker.models;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class SubscriptionExpiredEvent {
+    Long subscriberId;
+    String endpoint;
+    int statusCode;
+}
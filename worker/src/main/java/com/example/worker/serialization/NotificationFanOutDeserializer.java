@@ -0,0 +1,67 @@
+package com.example.worker.serialization;
+
+import com.example.worker.models.NotificationFanOutMessage;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Deserializes fan-out records written by notification_service. All numbers
+ * are big-endian:
+ * <pre>
+ * byte   magic (0xB8)
+ * byte   version (1)
+ * int    message length, message UTF-8 bytes
+ * int    subscriber count
+ * long[] subscriber ids
+ * </pre>
+ */
+public class NotificationFanOutDeserializer implements Deserializer<NotificationFanOutMessage> {
+
+    public static final byte MAGIC = (byte) 0xB8;
+    public static final byte VERSION = 1;
+
+    /**
+     * @param data the record value
+     * @return true if the value is a fan-out record
+     */
+    public static boolean isFanOut(byte[] data) {
+        return data != null && data.length > 0 && data[0] == MAGIC;
+    }
+
+    @Override
+    public NotificationFanOutMessage deserialize(String topic, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.get() != MAGIC) {
+            throw new SerializationException("Not a fan-out record");
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new SerializationException("Unsupported fan-out format version " + version);
+        }
+        try {
+            int messageLength = buffer.getInt();
+            if (messageLength < 0 || messageLength > buffer.remaining()) {
+                throw new SerializationException("Invalid message length " + messageLength);
+            }
+            String message = new String(data, buffer.position(), messageLength, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + messageLength);
+
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / Long.BYTES) {
+                throw new SerializationException("Invalid subscriber count " + count);
+            }
+            long[] subscriberIds = new long[count];
+            buffer.asLongBuffer().get(subscriberIds);
+            return new NotificationFanOutMessage(message, subscriberIds);
+        } catch (BufferUnderflowException e) {
+            throw new SerializationException("Truncated fan-out record", e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.worker.serialization;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Writes the {@code {"title":...,"body":...}} payload shown by the service
+ * worker straight to UTF-8 bytes. Field names and the title are encoded once,
+ * and the output buffers are pooled, so a payload costs little more than its
+ * final byte array.
+ */
+public class NotificationPayloadWriter {
+
+    private static final SerializedString TITLE_FIELD = new SerializedString("title");
+    private static final SerializedString BODY_FIELD = new SerializedString("body");
+    private static final int BUFFER_SIZE = 512;
+
+    private final JsonFactory factory;
+    private final SerializedString title;
+    private final Queue<ByteArrayBuilder> buffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param factory the factory generators are created with
+     * @param title   the notification title, the same for every payload
+     */
+    public NotificationPayloadWriter(JsonFactory factory, String title) {
+        this.factory = factory;
+        this.title = new SerializedString(title);
+    }
+
+    /**
+     * @param message the notification body
+     * @return the UTF-8 JSON payload
+     * @throws IOException if the payload cannot be written
+     */
+    public byte[] write(String message) throws IOException {
+        ByteArrayBuilder buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = new ByteArrayBuilder(BUFFER_SIZE);
+        }
+        try {
+            try (JsonGenerator generator = factory.createGenerator(buffer)) {
+                generator.writeStartObject();
+                generator.writeFieldName(TITLE_FIELD);
+                generator.writeString(title);
+                generator.writeFieldName(BODY_FIELD);
+                generator.writeString(message);
+                generator.writeEndObject();
+            }
+            return buffer.toByteArray();
+        } finally {
+            buffer.reset();
+            buffers.offer(buffer);
+        }
+    }
+}
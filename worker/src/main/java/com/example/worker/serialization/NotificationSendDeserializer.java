@@ -0,0 +1,104 @@
+package com.example.worker.serialization;
+
+import com.example.worker.models.NotificationSendDTO;
+import com.example.worker.models.NotificationSendMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import nl.martijndwars.webpush.Base64Encoder;
+import nl.martijndwars.webpush.Subscription;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Deserializes worker topic records from the versioned binary wire format
+ * written by notification_service. All numbers are big-endian:
+ * <pre>
+ * byte   magic (0xB7, never the first byte of a JSON record)
+ * byte   version (1)
+ * long   subscriber id
+ * short  endpoint length, endpoint UTF-8 bytes
+ * byte   p256dh length, p256dh key bytes
+ * byte   auth length, auth secret bytes
+ * int    message length, message UTF-8 bytes
+ * </pre>
+ * Records without the magic byte are read as the JSON {@link NotificationSendDTO},
+ * so producers can switch formats while workers are running.
+ */
+public class NotificationSendDeserializer implements Deserializer<NotificationSendMessage> {
+
+    public static final byte MAGIC = (byte) 0xB7;
+    public static final byte VERSION = 1;
+
+    private final ObjectReader dtoReader;
+    private final ObjectReader subscriptionReader;
+
+    public NotificationSendDeserializer(ObjectMapper mapper) {
+        this.dtoReader = mapper.readerFor(NotificationSendDTO.class);
+        this.subscriptionReader = mapper.readerFor(Subscription.class);
+    }
+
+    @Override
+    public NotificationSendMessage deserialize(String topic, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        if (data.length > 0 && data[0] == MAGIC) {
+            return readBinary(data);
+        }
+        return readJson(data);
+    }
+
+    private NotificationSendMessage readBinary(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.get();
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new SerializationException("Unsupported wire format version " + version);
+        }
+        try {
+            long subscriberId = buffer.getLong();
+            String endpoint = readString(buffer, Short.toUnsignedInt(buffer.getShort()));
+            byte[] p256dh = readBytes(buffer, Byte.toUnsignedInt(buffer.get()));
+            byte[] auth = readBytes(buffer, Byte.toUnsignedInt(buffer.get()));
+            String message = readString(buffer, buffer.getInt());
+            return new NotificationSendMessage(subscriberId, endpoint, p256dh, auth, message);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new SerializationException("Truncated binary record", e);
+        }
+    }
+
+    private NotificationSendMessage readJson(byte[] data) {
+        try {
+            NotificationSendDTO dto = dtoReader.readValue(data);
+            Subscription subscription = subscriptionReader.readValue(dto.getSubscriptionJson());
+            return new NotificationSendMessage(
+                    dto.getSubscriberId(),
+                    subscription.endpoint,
+                    Base64Encoder.decode(subscription.keys.p256dh),
+                    Base64Encoder.decode(subscription.keys.auth),
+                    dto.getMessage());
+        } catch (IOException | RuntimeException e) {
+            throw new SerializationException("Undecodable JSON record", e);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid field length " + length);
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
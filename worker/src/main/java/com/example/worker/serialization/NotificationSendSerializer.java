@@ -0,0 +1,48 @@
+package com.example.worker.serialization;
+
+import com.example.worker.models.NotificationSendMessage;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serializes single-subscriber records into the binary wire format read by
+ * {@link NotificationSendDeserializer}. Used to retry individual pushes of a
+ * fan-out record without repeating the whole fan-out.
+ */
+public class NotificationSendSerializer implements Serializer<NotificationSendMessage> {
+
+    private static final int MAX_SHORT_FIELD = 0xFFFF;
+    private static final int MAX_BYTE_FIELD = 0xFF;
+
+    @Override
+    public byte[] serialize(String topic, NotificationSendMessage message) {
+        if (message == null) {
+            return null;
+        }
+        byte[] endpoint = message.getEndpoint().getBytes(StandardCharsets.UTF_8);
+        byte[] text = message.getMessage().getBytes(StandardCharsets.UTF_8);
+        if (endpoint.length > MAX_SHORT_FIELD
+                || message.getP256dh().length > MAX_BYTE_FIELD
+                || message.getAuth().length > MAX_BYTE_FIELD) {
+            throw new SerializationException("Subscription of subscriber " + message.getSubscriberId()
+                    + " does not fit the binary wire format");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(2 + Long.BYTES
+                + Short.BYTES + endpoint.length
+                + 1 + message.getP256dh().length
+                + 1 + message.getAuth().length
+                + Integer.BYTES + text.length);
+        buffer.put(NotificationSendDeserializer.MAGIC)
+                .put(NotificationSendDeserializer.VERSION)
+                .putLong(message.getSubscriberId())
+                .putShort((short) endpoint.length).put(endpoint)
+                .put((byte) message.getP256dh().length).put(message.getP256dh())
+                .put((byte) message.getAuth().length).put(message.getAuth())
+                .putInt(text.length).put(text);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.worker.serialization;
+
+import com.example.worker.models.StoredSubscription;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Deserializes subscriptions of the subscriptions changelog topic written by
+ * notification_service. All numbers are big-endian:
+ * <pre>
+ * byte   magic (0xB9)
+ * byte   version (1)
+ * short  endpoint length, endpoint UTF-8 bytes
+ * byte   p256dh length, p256dh key bytes
+ * byte   auth length, auth secret bytes
+ * </pre>
+ * Tombstones deserialize to null.
+ */
+public class SubscriptionChangelogDeserializer implements Deserializer<StoredSubscription> {
+
+    public static final byte MAGIC = (byte) 0xB9;
+    public static final byte VERSION = 1;
+
+    @Override
+    public StoredSubscription deserialize(String topic, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try {
+            if (buffer.get() != MAGIC) {
+                throw new SerializationException("Not a changelog record");
+            }
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new SerializationException("Unsupported changelog format version " + version);
+            }
+            byte[] endpoint = readBytes(buffer, Short.toUnsignedInt(buffer.getShort()));
+            byte[] p256dh = readBytes(buffer, Byte.toUnsignedInt(buffer.get()));
+            byte[] auth = readBytes(buffer, Byte.toUnsignedInt(buffer.get()));
+            return new StoredSubscription(new String(endpoint, StandardCharsets.UTF_8), p256dh, auth);
+        } catch (BufferUnderflowException e) {
+            throw new SerializationException("Truncated changelog record", e);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
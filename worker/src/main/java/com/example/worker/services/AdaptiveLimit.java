@@ -0,0 +1,82 @@
+package com.example.worker.services;
+
+import java.time.Duration;
+
+/**
+ * AIMD concurrency limit. Response samples are collected over short windows;
+ * at the end of each window the limit is cut multiplicatively if the error
+ * rate or the mean latency exceeded their targets, and raised additively if
+ * the limit was the bottleneck, i.e. in-flight requests came close to it.
+ */
+class AdaptiveLimit {
+
+    private static final double BACKOFF = 0.9;
+    private static final int INCREASE = 4;
+    private static final double UTILIZATION = 0.8;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyTargetNanos;
+    private final double errorRateThreshold;
+    private final long windowNanos;
+    private volatile int limit;
+
+    private long windowStart = System.nanoTime();
+    private int samples;
+    private int errors;
+    private long latencySum;
+    private int peakInFlight;
+
+    /**
+     * @param initialLimit       limit before the first window completes
+     * @param minLimit           lower bound of the limit
+     * @param maxLimit           upper bound of the limit
+     * @param latencyTarget      mean latency above which the limit is cut
+     * @param errorRateThreshold error rate above which the limit is cut
+     * @param window             length of a sample window
+     */
+    AdaptiveLimit(int initialLimit, int minLimit, int maxLimit,
+                  Duration latencyTarget, double errorRateThreshold, Duration window) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTargetNanos = latencyTarget.toNanos();
+        this.errorRateThreshold = errorRateThreshold;
+        this.windowNanos = window.toNanos();
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    int get() {
+        return limit;
+    }
+
+    /**
+     * Records the outcome of a completed request.
+     *
+     * @param latencyNanos time from dispatch to response
+     * @param failed       true if the request failed or was throttled
+     * @param inFlight     requests in flight, including this one, when it completed
+     */
+    synchronized void onSample(long latencyNanos, boolean failed, int inFlight) {
+        samples++;
+        latencySum += latencyNanos;
+        if (failed) {
+            errors++;
+        }
+        peakInFlight = Math.max(peakInFlight, inFlight);
+
+        long now = System.nanoTime();
+        if (now - windowStart < windowNanos) {
+            return;
+        }
+        if ((double) errors / samples > errorRateThreshold || latencySum / samples > latencyTargetNanos) {
+            limit = Math.max(minLimit, (int) (limit * BACKOFF));
+        } else if (peakInFlight >= limit * UTILIZATION) {
+            limit = Math.min(maxLimit, limit + INCREASE);
+        }
+        windowStart = now;
+        samples = 0;
+        errors = 0;
+        latencySum = 0;
+        peakInFlight = 0;
+    }
+}
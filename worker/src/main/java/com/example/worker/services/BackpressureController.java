@@ -0,0 +1,124 @@
+package com.example.worker.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the worker topic listeners from consuming faster than push services
+ * accept pushes. Listeners hand records to {@link PushDeliveryEngine} without
+ * waiting for them, so once the pushes the engine holds pass the high
+ * watermark the listener containers are paused, and they are resumed when
+ * the engine has drained below the low watermark. Paused consumers keep
+ * polling, so they stay in the group and keep committing completed offsets.
+ */
+@Slf4j
+@Component
+public class BackpressureController implements SmartLifecycle {
+
+    private static final List<String> WORKER_TOPIC_LISTENERS = List.of(
+            WebPushService.RECORD_LISTENER_ID,
+            WebPushService.BATCH_LISTENER_ID);
+
+    private final PushDeliveryEngine deliveryEngine;
+    private final KafkaListenerEndpointRegistry registry;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${worker.backpressure.high-watermark:20000}")
+    private int highWatermark;
+
+    @Value("${worker.backpressure.low-watermark:10000}")
+    private int lowWatermark;
+
+    @Value("${worker.backpressure.check-interval:50ms}")
+    private Duration checkInterval;
+
+    private ScheduledExecutorService checker;
+    private volatile boolean paused;
+
+    @Autowired
+    public BackpressureController(
+            PushDeliveryEngine deliveryEngine,
+            KafkaListenerEndpointRegistry registry,
+            MeterRegistry meterRegistry) {
+        this.deliveryEngine = deliveryEngine;
+        this.registry = registry;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Starts checking the engine's outstanding pushes against the watermarks.
+     */
+    @Override
+    public void start() {
+        Gauge.builder("worker.backpressure.paused", this, controller -> controller.paused ? 1 : 0)
+                .register(meterRegistry);
+        checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "worker-backpressure");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checker.scheduleWithFixedDelay(this::check, checkInterval.toMillis(), checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        checker.shutdownNow();
+        checker = null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return checker != null;
+    }
+
+    /**
+     * Starts after the listener containers, which start in the default container phase.
+     *
+     * @return the lifecycle phase
+     */
+    @Override
+    public int getPhase() {
+        return AbstractMessageListenerContainer.DEFAULT_PHASE + 1;
+    }
+
+    private void check() {
+        try {
+            int outstanding = deliveryEngine.getOutstanding();
+            if (!paused && outstanding >= highWatermark) {
+                paused = true;
+                log.info("{} pushes outstanding, pausing worker topic listeners", outstanding);
+                forEachRunningListener(MessageListenerContainer::pause);
+            } else if (paused && outstanding <= lowWatermark) {
+                paused = false;
+                log.info("{} pushes outstanding, resuming worker topic listeners", outstanding);
+                forEachRunningListener(MessageListenerContainer::resume);
+            }
+        } catch (RuntimeException e) {
+            log.error("Backpressure check failed", e);
+        }
+    }
+
+    private void forEachRunningListener(Consumer<MessageListenerContainer> action) {
+        for (String id : WORKER_TOPIC_LISTENERS) {
+            MessageListenerContainer container = registry.getListenerContainer(id);
+            if (container != null && container.isRunning()) {
+                action.accept(container);
+            }
+        }
+    }
+}
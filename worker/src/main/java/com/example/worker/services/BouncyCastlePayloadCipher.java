@@ -0,0 +1,52 @@
+package com.example.worker.services;
+
+import nl.martijndwars.webpush.AbstractPushService;
+import nl.martijndwars.webpush.Encoding;
+import nl.martijndwars.webpush.HttpEce;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.PublicKey;
+import java.util.Map;
+
+/**
+ * Payload encryption through the web-push library's {@link HttpEce}, which
+ * runs ECDH and AES-GCM on BouncyCastle's pure-Java implementation.
+ */
+@Component
+@ConditionalOnProperty(name = "worker.crypto.provider", havingValue = "bouncycastle", matchIfMissing = true)
+public class BouncyCastlePayloadCipher implements PayloadCipher {
+
+    private static final int SALT_LENGTH = 16;
+    private static final Map<String, String> SERVER_KEY_LABELS = Map.of(
+            AbstractPushService.SERVER_KEY_ID, AbstractPushService.SERVER_KEY_CURVE);
+
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final EphemeralKeyPool keyPool;
+
+    @Autowired
+    public BouncyCastlePayloadCipher(EphemeralKeyPool keyPool) {
+        this.keyPool = keyPool;
+    }
+
+    @Override
+    public byte[] encrypt(byte[] payload, PublicKey userPublicKey, byte[] userAuth)
+            throws GeneralSecurityException {
+        byte[] salt = new byte[SALT_LENGTH];
+        secureRandom.nextBytes(salt);
+        HttpEce httpEce = new HttpEce(
+                Map.of(AbstractPushService.SERVER_KEY_ID, keyPool.take()),
+                SERVER_KEY_LABELS);
+        return httpEce.encrypt(
+                payload,
+                salt,
+                null,
+                AbstractPushService.SERVER_KEY_ID,
+                (org.bouncycastle.jce.interfaces.ECPublicKey) userPublicKey,
+                userAuth,
+                Encoding.AES128GCM);
+    }
+}
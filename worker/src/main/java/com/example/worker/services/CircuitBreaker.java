@@ -0,0 +1,110 @@
+package com.example.worker.services;
+
+import java.time.Duration;
+
+/**
+ * Consecutive-failure circuit breaker for a single push-service host. After
+ * {@code failureThreshold} failures in a row the circuit opens and requests
+ * are rejected until the open period has passed; a single probe request then
+ * decides whether the circuit closes again or stays open for another period.
+ * Every granted request holds a {@link Permit} that is handed back with its
+ * outcome, so only the outcome of the probe frees the probe slot.
+ */
+class CircuitBreaker {
+
+    /**
+     * Permission to send a request, handed back when its outcome is recorded.
+     */
+    enum Permit { REQUEST, PROBE }
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean probeInFlight;
+
+    CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Asks for permission to send a request.
+     *
+     * @return the permit of the request, or null if the circuit is open and
+     * the request must not be sent
+     */
+    synchronized Permit tryAcquire() {
+        if (state == State.CLOSED) {
+            return Permit.REQUEST;
+        }
+        if (state == State.OPEN && openUntil - System.currentTimeMillis() <= 0) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return Permit.PROBE;
+        }
+        return null;
+    }
+
+    /**
+     * @return how long the circuit stays open, zero if it is not open
+     */
+    synchronized Duration remainingOpen() {
+        if (state != State.OPEN) {
+            return Duration.ZERO;
+        }
+        return Duration.ofMillis(Math.max(0, openUntil - System.currentTimeMillis()));
+    }
+
+    /**
+     * Records a successful response and closes the circuit.
+     *
+     * @param permit the permit the request was sent with
+     */
+    synchronized void recordSuccess(Permit permit) {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        release(permit);
+    }
+
+    /**
+     * Records a throttled or failed response, opening the circuit once the
+     * threshold is reached or if the failed request was the probe.
+     *
+     * @param permit     the permit the request was sent with
+     * @param retryAfter delay requested by the push service, or null
+     */
+    synchronized void recordFailure(Permit permit, Duration retryAfter) {
+        consecutiveFailures++;
+        release(permit);
+        if (permit == Permit.PROBE || consecutiveFailures >= failureThreshold) {
+            Duration open = retryAfter != null && retryAfter.compareTo(openDuration) > 0 ? retryAfter : openDuration;
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + open.toMillis();
+        }
+    }
+
+    /**
+     * Records a request that was never sent, freeing the probe slot if it held it.
+     *
+     * @param permit the permit the request was granted
+     */
+    synchronized void recordIgnored(Permit permit) {
+        release(permit);
+    }
+
+    synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    private void release(Permit permit) {
+        if (permit == Permit.PROBE) {
+            probeInFlight = false;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.worker.services;
+
+import com.example.worker.configurations.KafkaConfiguration;
+import com.example.worker.models.DeliveryOutcome;
+import com.example.worker.models.DeliveryReport;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the final push outcomes of notification jobs and reports them back to
+ * notification_service. Records carry their job in the
+ * {@value #JOB_ID_HEADER} header; outcomes are aggregated per job and
+ * published every {@code worker.delivery-reports.interval}, so a large
+ * notification costs a handful of report records instead of one per push.
+ */
+@Slf4j
+@Service
+public class DeliveryReportService {
+
+    public static final String JOB_ID_HEADER = "notification-job-id";
+
+    private final Map<String, DeliveryReport> pending = new ConcurrentHashMap<>();
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final ObjectMapper mapper;
+
+    @Value("${worker.delivery-reports.interval:1s}")
+    private Duration interval;
+
+    private ScheduledExecutorService flusher;
+
+    @Autowired
+    public DeliveryReportService(KafkaTemplate<String, String> kafkaTemplate, ObjectMapper mapper) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.mapper = mapper;
+    }
+
+    @PostConstruct
+    private void init() {
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "delivery-report-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        flusher.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Counts the outcome of one push of the record.
+     *
+     * @param record  the consumed record
+     * @param outcome the outcome of the push
+     */
+    public void record(ConsumerRecord<String, byte[]> record, DeliveryOutcome outcome) {
+        record(record, outcome, 1);
+    }
+
+    /**
+     * Counts the same outcome for several pushes of the record. Records without
+     * a job and pushes that are still being retried are not counted.
+     *
+     * @param record  the consumed record
+     * @param outcome the outcome of the pushes
+     * @param count   the number of pushes
+     */
+    public void record(ConsumerRecord<String, byte[]> record, DeliveryOutcome outcome, int count) {
+        Header header = record.headers().lastHeader(JOB_ID_HEADER);
+        if (header == null || outcome == DeliveryOutcome.RETRYING || count == 0) {
+            return;
+        }
+        pending.compute(new String(header.value(), StandardCharsets.UTF_8), (jobId, report) -> {
+            if (report == null) {
+                report = new DeliveryReport(jobId, 0, 0, 0);
+            }
+            switch (outcome) {
+                case DELIVERED -> report.setDelivered(report.getDelivered() + count);
+                case EXPIRED -> report.setExpired(report.getExpired() + count);
+                default -> report.setFailed(report.getFailed() + count);
+            }
+            return report;
+        });
+    }
+
+    private void flush() {
+        for (String jobId : pending.keySet()) {
+            DeliveryReport report = pending.remove(jobId);
+            if (report == null) {
+                continue;
+            }
+            try {
+                kafkaTemplate.send(KafkaConfiguration.DELIVERY_REPORT_TOPIC, jobId, mapper.writeValueAsString(report));
+            } catch (JsonProcessingException | RuntimeException e) {
+                log.warn("Could not report deliveries of job {}", jobId, e);
+            }
+        }
+    }
+}
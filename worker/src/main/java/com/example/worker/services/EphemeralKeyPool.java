@@ -0,0 +1,138 @@
+package com.example.worker.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of pre-generated P-256 key pairs for the ephemeral ECDH step of RFC 8291
+ * payload encryption. A background thread keeps the bounded lock-free pool
+ * topped up, so send threads only generate a key pair inline when the pool has
+ * run dry. Keys are generated by the provider that {@link PayloadCipher} uses.
+ */
+@Component
+public class EphemeralKeyPool {
+
+    private static final String BOUNCY_CASTLE_CURVE = "prime256v1";
+    private static final String JDK_CURVE = "secp256r1";
+    private static final String JDK_PROVIDER = "jdk";
+    private static final String METRIC_PREFIX = "worker.crypto.key_pool";
+
+    private final Queue<KeyPair> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private final MeterRegistry meterRegistry;
+
+    @Value("${worker.crypto.provider:bouncycastle}")
+    private String cryptoProvider;
+
+    @Value("${worker.crypto.key-pool.capacity:4096}")
+    private int capacity;
+
+    @Value("${worker.crypto.key-pool.refill-threshold:0.75}")
+    private double refillThreshold;
+
+    private ScheduledExecutorService refiller;
+    private KeyPairGenerator refillGenerator;
+    private Counter hits;
+    private Counter misses;
+    private Timer generation;
+
+    @Autowired
+    public EphemeralKeyPool(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Registers the pool metrics and starts the background refill with
+     * BouncyCastle provider.
+     *
+     * @throws GeneralSecurityException if the key pair generator is unavailable
+     */
+    @PostConstruct
+    private void init() throws GeneralSecurityException {
+        Security.addProvider(new BouncyCastleProvider());
+        refillGenerator = newGenerator();
+        hits = meterRegistry.counter(METRIC_PREFIX + ".hits");
+        misses = meterRegistry.counter(METRIC_PREFIX + ".misses");
+        generation = meterRegistry.timer(METRIC_PREFIX + ".generation");
+        Gauge.builder(METRIC_PREFIX + ".size", size, AtomicInteger::get).register(meterRegistry);
+
+        refiller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ephemeral-key-refill");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refiller.scheduleWithFixedDelay(this::refill, 0, 50, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        refiller.shutdownNow();
+    }
+
+    /**
+     * Takes a key pair from the pool, or generates one inline if the pool is empty.
+     *
+     * @return an unused ephemeral key pair
+     * @throws GeneralSecurityException if inline generation fails
+     */
+    public KeyPair take() throws GeneralSecurityException {
+        KeyPair keyPair = pool.poll();
+        if (keyPair != null) {
+            size.decrementAndGet();
+            hits.increment();
+            if (size.get() < capacity * refillThreshold && refilling.compareAndSet(false, true)) {
+                refiller.execute(this::refill);
+            }
+            return keyPair;
+        }
+
+        misses.increment();
+        return newGenerator().generateKeyPair();
+    }
+
+    private void refill() {
+        refilling.set(true);
+        try {
+            while (size.get() < capacity) {
+                pool.add(generation.record(refillGenerator::generateKeyPair));
+                size.incrementAndGet();
+            }
+        } finally {
+            refilling.set(false);
+        }
+    }
+
+    private KeyPairGenerator newGenerator() throws GeneralSecurityException {
+        if (JDK_PROVIDER.equals(cryptoProvider)) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", "SunEC");
+            generator.initialize(new ECGenParameterSpec(JDK_CURVE));
+            return generator;
+        }
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("ECDH", BouncyCastleProvider.PROVIDER_NAME);
+        generator.initialize(ECNamedCurveTable.getParameterSpec(BOUNCY_CASTLE_CURVE));
+        return generator;
+    }
+}
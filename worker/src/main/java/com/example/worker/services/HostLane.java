@@ -0,0 +1,134 @@
+package com.example.worker.services;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Non-blocking admission queue for a single push-service host. At most as many
+ * requests as the host's adaptive limit allows are dispatched at once, the
+ * rest wait in the queue and are dispatched as earlier requests complete.
+ * The limit follows the latency and error rate of the host. Dispatches are paced
+ * by the host's token bucket, and while the host's circuit is open queued
+ * items are rejected instead of dispatched.
+ *
+ * @param <T> the queued work item
+ */
+class HostLane<T> {
+
+    private final AdaptiveLimit limit;
+    private final TokenBucket rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final ScheduledExecutorService scheduler;
+    private final BiConsumer<T, CircuitBreaker.Permit> dispatcher;
+    private final BiConsumer<T, Duration> rejecter;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Queue<T> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param limit          maximum number of dispatched, uncompleted items
+     * @param rateLimiter    paces dispatches
+     * @param circuitBreaker decides whether items are dispatched or rejected
+     * @param scheduler      runs dispatches delayed by the rate limiter
+     * @param dispatcher     sends an item with its circuit permit; must eventually call
+     *                       {@link #release(CircuitBreaker.Permit, Boolean, Duration, long)} with that permit.
+     *                       Called on the submitting, releasing or scheduler thread, so it should
+     *                       only hand the item over rather than do expensive work
+     * @param rejecter       fails an item that is rejected by the open circuit
+     */
+    HostLane(AdaptiveLimit limit, TokenBucket rateLimiter, CircuitBreaker circuitBreaker,
+             ScheduledExecutorService scheduler, BiConsumer<T, CircuitBreaker.Permit> dispatcher,
+             BiConsumer<T, Duration> rejecter) {
+        this.limit = limit;
+        this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
+        this.scheduler = scheduler;
+        this.dispatcher = dispatcher;
+        this.rejecter = rejecter;
+    }
+
+    /**
+     * Queues the item and dispatches it right away if the lane has capacity.
+     *
+     * @param item the work item
+     */
+    void submit(T item) {
+        pending.add(item);
+        drain();
+    }
+
+    /**
+     * Frees the slot of a completed request, records its outcome and
+     * dispatches the next queued item.
+     *
+     * @param permit       the circuit permit the item was dispatched with
+     * @param healthy      true if the host answered normally, false if it failed or
+     *                     throttled the request, null if the request was never sent
+     * @param retryAfter   delay requested by the host, or null
+     * @param latencyNanos time from dispatch to response, ignored if the request was never sent
+     */
+    void release(CircuitBreaker.Permit permit, Boolean healthy, Duration retryAfter, long latencyNanos) {
+        int current = inFlight.getAndDecrement();
+        if (healthy == null) {
+            circuitBreaker.recordIgnored(permit);
+        } else if (healthy) {
+            circuitBreaker.recordSuccess(permit);
+            limit.onSample(latencyNanos, false, current);
+        } else {
+            circuitBreaker.recordFailure(permit, retryAfter);
+            limit.onSample(latencyNanos, true, current);
+        }
+        drain();
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    int getPending() {
+        return pending.size();
+    }
+
+    int getLimit() {
+        return limit.get();
+    }
+
+    boolean isCircuitOpen() {
+        return circuitBreaker.isOpen();
+    }
+
+    private void drain() {
+        while (!pending.isEmpty()) {
+            int current = inFlight.get();
+            if (current >= limit.get()) {
+                return;
+            }
+            if (!inFlight.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            T item = pending.poll();
+            if (item == null) {
+                inFlight.decrementAndGet();
+                continue;
+            }
+
+            CircuitBreaker.Permit permit = circuitBreaker.tryAcquire();
+            if (permit == null) {
+                inFlight.decrementAndGet();
+                rejecter.accept(item, circuitBreaker.remainingOpen());
+                continue;
+            }
+
+            long waitNanos = rateLimiter.reserve();
+            if (waitNanos > 0) {
+                scheduler.schedule(() -> dispatcher.accept(item, permit), waitNanos, TimeUnit.NANOSECONDS);
+            } else {
+                dispatcher.accept(item, permit);
+            }
+        }
+    }
+}
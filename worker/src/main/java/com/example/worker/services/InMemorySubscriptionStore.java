@@ -0,0 +1,50 @@
+package com.example.worker.services;
+
+import com.example.worker.models.StoredSubscription;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Heap-backed {@link SubscriptionStore}. Its state is lost on restart, so the
+ * changelog is replayed from the beginning.
+ */
+@Component
+@ConditionalOnProperty(name = "worker.subscription-store", havingValue = "memory", matchIfMissing = true)
+public class InMemorySubscriptionStore implements SubscriptionStore {
+
+    private final Map<Long, StoredSubscription> subscriptions = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> appliedOffsets = new ConcurrentHashMap<>();
+
+    @Override
+    public StoredSubscription get(long subscriberId) {
+        return subscriptions.get(subscriberId);
+    }
+
+    @Override
+    public void put(long subscriberId, StoredSubscription subscription) {
+        subscriptions.put(subscriberId, subscription);
+    }
+
+    @Override
+    public void remove(long subscriberId) {
+        subscriptions.remove(subscriberId);
+    }
+
+    @Override
+    public int size() {
+        return subscriptions.size();
+    }
+
+    @Override
+    public long appliedOffset(int partition) {
+        return appliedOffsets.getOrDefault(partition, -1L);
+    }
+
+    @Override
+    public void markApplied(int partition, long offset) {
+        appliedOffsets.put(partition, offset);
+    }
+}
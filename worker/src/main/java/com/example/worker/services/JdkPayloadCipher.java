@@ -0,0 +1,163 @@
+package com.example.worker.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPublicKeySpec;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * RFC 8291 payload encryption on the JDK's SunEC and SunJCE providers. AES-GCM
+ * and HMAC-SHA256 then run on the JVM's intrinsics instead of BouncyCastle's
+ * pure-Java code, but the per-message ECDH step dominates, and on JDK 17 SunEC
+ * is slower at it than BouncyCastle; measure with {@code PayloadCipherBenchmark}
+ * on the target JDK before switching providers. Cipher, MAC and key agreement
+ * instances are pooled rather than kept per thread, so they are still reused
+ * when encryption runs on short-lived virtual threads.
+ */
+@Component
+@ConditionalOnProperty(name = "worker.crypto.provider", havingValue = "jdk")
+public class JdkPayloadCipher implements PayloadCipher {
+
+    private static final String CURVE = "secp256r1";
+    private static final int SALT_LENGTH = 16;
+    private static final int KEY_LENGTH = 16;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int TAG_LENGTH = TAG_BITS / 8;
+    private static final int POINT_LENGTH = 65;
+    private static final int COORDINATE_LENGTH = 32;
+    private static final int RECORD_SIZE = 4096;
+    private static final int HEADER_LENGTH = SALT_LENGTH + 4 + 1 + POINT_LENGTH;
+    private static final byte RECORD_DELIMITER = 2;
+    private static final byte[] KEY_INFO = "WebPush: info\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CEK_INFO = "Content-Encoding: aes128gcm\0\1".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NONCE_INFO = "Content-Encoding: nonce\0\1".getBytes(StandardCharsets.US_ASCII);
+
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final EphemeralKeyPool keyPool;
+    private final Queue<Primitives> primitives = new ConcurrentLinkedQueue<>();
+    private final ECParameterSpec curveParameters;
+
+    @Autowired
+    public JdkPayloadCipher(EphemeralKeyPool keyPool) throws GeneralSecurityException {
+        this.keyPool = keyPool;
+        AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+        parameters.init(new ECGenParameterSpec(CURVE));
+        this.curveParameters = parameters.getParameterSpec(ECParameterSpec.class);
+    }
+
+    @Override
+    public byte[] encrypt(byte[] payload, PublicKey userPublicKey, byte[] userAuth)
+            throws GeneralSecurityException {
+        if (payload.length + 1 + TAG_LENGTH > RECORD_SIZE) {
+            throw new GeneralSecurityException("Payload does not fit into a single record");
+        }
+
+        Primitives p = borrow();
+        try {
+            return encrypt(p, payload, userPublicKey, userAuth);
+        } finally {
+            primitives.offer(p);
+        }
+    }
+
+    private byte[] encrypt(Primitives p, byte[] payload, PublicKey userPublicKey, byte[] userAuth)
+            throws GeneralSecurityException {
+        KeyPair serverKeys = keyPool.take();
+        ECPublicKey uaKey = toJdkKey(p, (ECPublicKey) userPublicKey);
+        byte[] uaPublic = encodePoint(uaKey);
+        byte[] asPublic = encodePoint((ECPublicKey) serverKeys.getPublic());
+
+        p.keyAgreement.init(serverKeys.getPrivate());
+        p.keyAgreement.doPhase(uaKey, true);
+        byte[] ecdhSecret = p.keyAgreement.generateSecret();
+
+        byte[] prkKey = hmac(p.mac, userAuth, ecdhSecret);
+        p.mac.init(new SecretKeySpec(prkKey, p.mac.getAlgorithm()));
+        p.mac.update(KEY_INFO);
+        p.mac.update(uaPublic);
+        p.mac.update(asPublic);
+        p.mac.update((byte) 1);
+        byte[] ikm = p.mac.doFinal();
+
+        byte[] salt = new byte[SALT_LENGTH];
+        secureRandom.nextBytes(salt);
+        byte[] prk = hmac(p.mac, salt, ikm);
+        byte[] cek = hmac(p.mac, prk, CEK_INFO);
+        byte[] nonce = hmac(p.mac, prk, NONCE_INFO);
+
+        byte[] body = new byte[HEADER_LENGTH + payload.length + 1 + TAG_LENGTH];
+        ByteBuffer.wrap(body)
+                .put(salt)
+                .putInt(RECORD_SIZE)
+                .put((byte) POINT_LENGTH)
+                .put(asPublic)
+                .put(payload)
+                .put(RECORD_DELIMITER);
+
+        p.cipher.init(
+                Cipher.ENCRYPT_MODE,
+                new SecretKeySpec(cek, 0, KEY_LENGTH, "AES"),
+                new GCMParameterSpec(TAG_BITS, nonce, 0, NONCE_LENGTH));
+        p.cipher.doFinal(body, HEADER_LENGTH, payload.length + 1, body, HEADER_LENGTH);
+        return body;
+    }
+
+    private ECPublicKey toJdkKey(Primitives p, ECPublicKey key) throws GeneralSecurityException {
+        return (ECPublicKey) p.keyFactory.generatePublic(new ECPublicKeySpec(key.getW(), curveParameters));
+    }
+
+    private Primitives borrow() throws GeneralSecurityException {
+        Primitives p = primitives.poll();
+        return p != null ? p : new Primitives();
+    }
+
+    private static byte[] hmac(Mac mac, byte[] key, byte[] data) throws GeneralSecurityException {
+        mac.init(new SecretKeySpec(key, mac.getAlgorithm()));
+        return mac.doFinal(data);
+    }
+
+    private static byte[] encodePoint(ECPublicKey key) {
+        byte[] point = new byte[POINT_LENGTH];
+        point[0] = 4;
+        writeCoordinate(key.getW().getAffineX(), point, 1);
+        writeCoordinate(key.getW().getAffineY(), point, 1 + COORDINATE_LENGTH);
+        return point;
+    }
+
+    private static void writeCoordinate(BigInteger value, byte[] target, int offset) {
+        byte[] bytes = value.toByteArray();
+        int length = Math.min(bytes.length, COORDINATE_LENGTH);
+        System.arraycopy(bytes, bytes.length - length, target, offset + COORDINATE_LENGTH - length, length);
+    }
+
+    private static final class Primitives {
+        private final KeyAgreement keyAgreement = KeyAgreement.getInstance("ECDH", "SunEC");
+        private final Mac mac = Mac.getInstance("HmacSHA256", "SunJCE");
+        private final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding", "SunJCE");
+        private final KeyFactory keyFactory = KeyFactory.getInstance("EC", "SunEC");
+
+        private Primitives() throws GeneralSecurityException {
+        }
+    }
+}
@@ -0,0 +1,661 @@
+package com.example.worker.services;
+
+import com.example.worker.models.StoredSubscription;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Off-heap {@link SubscriptionStore} backed by memory-mapped files, so the
+ * subscriptions neither count against the heap nor have to be replayed from
+ * the changelog after a restart. The store directory holds:
+ * <ul>
+ *     <li>{@code index}: a header followed by an open-addressing hash table
+ *     of 16-byte slots, subscriber ID and position of its record.</li>
+ *     <li>{@code data-<generation>-<segment>}: append-only segments of
+ *     variable-length records, each an unsigned short endpoint length and the
+ *     UTF-8 endpoint, then an unsigned byte length and the bytes of the
+ *     p256dh key and of the auth secret.</li>
+ *     <li>{@code offsets}: the applied changelog offset of each partition.</li>
+ *     <li>{@code lock}: locked while the store is open, so that no two
+ *     workers open the same directory.</li>
+ * </ul>
+ * Replaced and removed records stay in the segments until the store is
+ * reopened with more stale than live bytes, which rewrites the live records
+ * into a new generation. The index is rebuilt into a larger table when it
+ * fills up. Both swap in the new index with an atomic rename. Writers are
+ * serialized by their own lock, so a rebuild copies the index while readers
+ * keep using the old one, and {@link #get} only waits for the swap.
+ * <p>
+ * Writes are only forced to disk on shutdown. A store that was not closed
+ * cleanly is discarded when opened and rebuilt from the changelog.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "worker.subscription-store", havingValue = "mmap")
+public class MappedSubscriptionStore implements SubscriptionStore {
+
+    private static final String INDEX_FILE = "index";
+    private static final String OFFSETS_FILE = "offsets";
+    private static final String LOCK_FILE = "lock";
+    private static final String DATA_FILE_PREFIX = "data-";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int MAX_PARTITIONS = 4096;
+    private static final double MAX_LOAD = 0.75;
+    private static final double MAX_STALE_RATIO = 0.5;
+    private static final int MAX_RECORD_SIZE = 2 + 0xFFFF + 1 + 0xFF + 1 + 0xFF;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock writer = new ReentrantLock();
+
+    @Value("${worker.mmap-store.directory:subscription-store}")
+    private Path directory;
+
+    @Value("${worker.mmap-store.initial-capacity:1048576}")
+    private long initialCapacity;
+
+    @Value("${worker.mmap-store.segment-size:256MB}")
+    private DataSize segmentSize;
+
+    private FileChannel lockChannel;
+    private FileLock directoryLock;
+    private Index index;
+    private DataLog data;
+    private MappedByteBuffer offsets;
+
+    /**
+     * Opens the store, creating it if the directory holds none, and compacts
+     * its data if most of it is stale.
+     *
+     * @throws IOException           if the store files cannot be read or written
+     * @throws IllegalStateException if another process has the store open
+     */
+    @PostConstruct
+    private void open() throws IOException {
+        if (segmentSize.toBytes() < MAX_RECORD_SIZE || segmentSize.toBytes() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("worker.mmap-store.segment-size must be between "
+                    + MAX_RECORD_SIZE + " and " + Integer.MAX_VALUE + " bytes");
+        }
+        Files.createDirectories(directory);
+        lockDirectory();
+        Path indexPath = directory.resolve(INDEX_FILE);
+        Path offsetsPath = directory.resolve(OFFSETS_FILE);
+
+        long generation = 0;
+        if (Files.exists(indexPath)) {
+            index = Index.open(indexPath);
+            if (!index.isClean()) {
+                log.warn("Subscription store {} was not closed cleanly, rebuilding it from the changelog", directory);
+                generation = index.generation() + 1;
+                index = null;
+                Files.deleteIfExists(offsetsPath);
+            }
+        }
+        if (index == null) {
+            Path tmp = directory.resolve(INDEX_FILE + TMP_SUFFIX);
+            Files.deleteIfExists(tmp);
+            index = Index.create(tmp, tableSize(initialCapacity), generation, (int) segmentSize.toBytes());
+            index.force();
+            Files.move(tmp, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        deleteStaleSegments(index.generation());
+        data = new DataLog(directory, index.generation(), index.segmentSize(), index.writePosition());
+
+        boolean newOffsets = Files.notExists(offsetsPath);
+        offsets = map(offsetsPath, 0, (long) MAX_PARTITIONS * Long.BYTES);
+        if (newOffsets) {
+            for (int partition = 0; partition < MAX_PARTITIONS; partition++) {
+                offsets.putLong(partition * Long.BYTES, -1);
+            }
+        }
+
+        if (index.writePosition() - index.liveBytes() > index.writePosition() * MAX_STALE_RATIO) {
+            log.info("Compacting subscription store {}, {} of {} bytes are live",
+                    directory, index.liveBytes(), index.writePosition());
+            rebuild(index.capacity(), true);
+        }
+        index.setClean(false);
+        index.force();
+        log.info("Opened subscription store {} with {} subscriptions", directory, index.size());
+    }
+
+    /**
+     * Flushes the store to disk and marks it as cleanly closed.
+     */
+    @PreDestroy
+    private void close() throws IOException {
+        writer.lock();
+        lock.writeLock().lock();
+        try {
+            data.force();
+            offsets.force();
+            index.force();
+            index.setClean(true);
+            index.force();
+        } finally {
+            lock.writeLock().unlock();
+            writer.unlock();
+            directoryLock.release();
+            lockChannel.close();
+        }
+    }
+
+    @Override
+    public StoredSubscription get(long subscriberId) {
+        lock.readLock().lock();
+        try {
+            long slot = index.find(subscriberId);
+            return slot < 0 ? null : data.read(index.position(slot));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(long subscriberId, StoredSubscription subscription) {
+        byte[] endpoint = subscription.getEndpoint().getBytes(StandardCharsets.UTF_8);
+        if (endpoint.length > 0xFFFF || subscription.getP256dh().length > 0xFF || subscription.getAuth().length > 0xFF) {
+            throw new IllegalArgumentException("Subscription of subscriber " + subscriberId + " is too large to store");
+        }
+        writer.lock();
+        try {
+            if (index.size() + index.deleted() + 1 > index.capacity() * MAX_LOAD) {
+                rebuild(tableSize(index.size() + 1), false);
+            }
+            lock.writeLock().lock();
+            try {
+                write(subscriberId, endpoint, subscription);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    private void write(long subscriberId, byte[] endpoint, StoredSubscription subscription) throws IOException {
+        long position = data.append(endpoint, subscription.getP256dh(), subscription.getAuth());
+        index.setWritePosition(data.writePosition());
+
+        long slot = index.probe(subscriberId);
+        long liveBytes = index.liveBytes() + DataLog.recordSize(endpoint, subscription.getP256dh(), subscription.getAuth());
+        if (index.isLive(slot)) {
+            liveBytes -= data.recordSize(index.position(slot));
+        } else {
+            if (index.isDeleted(slot)) {
+                index.setDeleted(index.deleted() - 1);
+            }
+            index.setSize(index.size() + 1);
+        }
+        index.set(slot, subscriberId, position);
+        index.setLiveBytes(liveBytes);
+    }
+
+    @Override
+    public void remove(long subscriberId) {
+        writer.lock();
+        lock.writeLock().lock();
+        try {
+            long slot = index.find(subscriberId);
+            if (slot < 0) {
+                return;
+            }
+            index.setLiveBytes(index.liveBytes() - data.recordSize(index.position(slot)));
+            index.delete(slot);
+            index.setSize(index.size() - 1);
+            index.setDeleted(index.deleted() + 1);
+        } finally {
+            lock.writeLock().unlock();
+            writer.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return (int) index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long appliedOffset(int partition) {
+        return partition < MAX_PARTITIONS ? offsets.getLong(partition * Long.BYTES) : -1;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the partition number is beyond the
+     *                                  partitions the offsets file has room for
+     */
+    @Override
+    public void markApplied(int partition, long offset) {
+        if (partition >= MAX_PARTITIONS) {
+            throw new IllegalArgumentException("The store tracks at most " + MAX_PARTITIONS + " changelog partitions");
+        }
+        offsets.putLong(partition * Long.BYTES, offset);
+    }
+
+    /**
+     * Copies the live entries into a new index, and with compaction also their
+     * records into a new data generation, then swaps in the new index. Called
+     * by a writer, so the current index does not change while it is copied and
+     * readers only wait for the swap.
+     */
+    private void rebuild(long capacity, boolean compact) throws IOException {
+        long generation = compact ? index.generation() + 1 : index.generation();
+        Path tmp = directory.resolve(INDEX_FILE + TMP_SUFFIX);
+        Files.deleteIfExists(tmp);
+        Index rebuilt = Index.create(tmp, capacity, generation, index.segmentSize());
+        DataLog rebuiltData = compact ? new DataLog(directory, generation, index.segmentSize(), 0) : data;
+
+        for (long slot = 0; slot < index.capacity(); slot++) {
+            if (!index.isLive(slot)) {
+                continue;
+            }
+            long position = index.position(slot);
+            if (compact) {
+                StoredSubscription subscription = data.read(position);
+                position = rebuiltData.append(subscription.getEndpoint().getBytes(StandardCharsets.UTF_8),
+                        subscription.getP256dh(), subscription.getAuth());
+            }
+            long key = index.key(slot);
+            rebuilt.set(rebuilt.probe(key), key, position);
+        }
+        rebuilt.setSize(index.size());
+        rebuilt.setWritePosition(rebuiltData.writePosition());
+        rebuilt.setLiveBytes(compact ? rebuiltData.writePosition() : index.liveBytes());
+        rebuiltData.force();
+        rebuilt.force();
+
+        Files.move(tmp, directory.resolve(INDEX_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        lock.writeLock().lock();
+        try {
+            index = rebuilt;
+            data = rebuiltData;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (compact) {
+            deleteStaleSegments(generation);
+        }
+    }
+
+    /**
+     * Locks the store directory for this process until the store is closed.
+     */
+    private void lockDirectory() throws IOException {
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            directoryLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            directoryLock = null;
+        }
+        if (directoryLock == null) {
+            lockChannel.close();
+            throw new IllegalStateException("Subscription store " + directory + " is already open in another worker");
+        }
+    }
+
+    private void deleteStaleSegments(long generation) throws IOException {
+        String current = DATA_FILE_PREFIX + generation + "-";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, DATA_FILE_PREFIX + "*")) {
+            for (Path file : files) {
+                if (!file.getFileName().toString().startsWith(current)) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return smallest power of two table size that holds the entries at half the maximum load
+     */
+    private static long tableSize(long entries) {
+        long size = 1024;
+        while (entries > size * MAX_LOAD / 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static MappedByteBuffer map(Path path, long offset, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, offset, size);
+        }
+    }
+
+    /**
+     * Hash table from subscriber ID to record position. Slots are mapped in
+     * chunks, so the table is not limited to the 2 GB of a single mapping.
+     * A slot's reference is 0 if the slot is empty, -1 if its entry was
+     * removed and the record position plus one otherwise.
+     */
+    private static final class Index {
+
+        private static final int MAGIC = 0x53554253;
+        private static final int VERSION = 1;
+        private static final int HEADER_SIZE = 64;
+        private static final int MAGIC_AT = 0;
+        private static final int VERSION_AT = 4;
+        private static final int CAPACITY_AT = 8;
+        private static final int SIZE_AT = 16;
+        private static final int DELETED_AT = 24;
+        private static final int GENERATION_AT = 32;
+        private static final int WRITE_POSITION_AT = 40;
+        private static final int LIVE_BYTES_AT = 48;
+        private static final int SEGMENT_SIZE_AT = 56;
+        private static final int CLEAN_AT = 60;
+
+        private static final int SLOT_SIZE = 16;
+        private static final int CHUNK_SLOTS_SHIFT = 24;
+        private static final long CHUNK_SLOTS = 1L << CHUNK_SLOTS_SHIFT;
+        private static final long EMPTY = 0;
+        private static final long DELETED = -1;
+
+        private final MappedByteBuffer header;
+        private final MappedByteBuffer[] chunks;
+        private final long capacity;
+
+        private Index(MappedByteBuffer header, MappedByteBuffer[] chunks, long capacity) {
+            this.header = header;
+            this.chunks = chunks;
+            this.capacity = capacity;
+        }
+
+        static Index create(Path path, long capacity, long generation, int segmentSize) throws IOException {
+            Index index = map(path, capacity);
+            index.header.putInt(MAGIC_AT, MAGIC);
+            index.header.putInt(VERSION_AT, VERSION);
+            index.header.putLong(CAPACITY_AT, capacity);
+            index.header.putLong(GENERATION_AT, generation);
+            index.header.putInt(SEGMENT_SIZE_AT, segmentSize);
+            return index;
+        }
+
+        static Index open(Path path) throws IOException {
+            MappedByteBuffer header = MappedSubscriptionStore.map(path, 0, HEADER_SIZE);
+            if (header.getInt(MAGIC_AT) != MAGIC || header.getInt(VERSION_AT) != VERSION) {
+                throw new IOException(path + " is not a subscription store index of version " + VERSION);
+            }
+            return map(path, header.getLong(CAPACITY_AT));
+        }
+
+        private static Index map(Path path, long capacity) throws IOException {
+            MappedByteBuffer header = MappedSubscriptionStore.map(path, 0, HEADER_SIZE);
+            int chunkCount = (int) ((capacity + CHUNK_SLOTS - 1) / CHUNK_SLOTS);
+            MappedByteBuffer[] chunks = new MappedByteBuffer[chunkCount];
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                long slots = Math.min(CHUNK_SLOTS, capacity - chunk * CHUNK_SLOTS);
+                chunks[chunk] = MappedSubscriptionStore.map(path,
+                        HEADER_SIZE + chunk * CHUNK_SLOTS * SLOT_SIZE, slots * SLOT_SIZE);
+            }
+            return new Index(header, chunks, capacity);
+        }
+
+        /**
+         * @return slot of the subscriber, or -1 if it has no entry
+         */
+        long find(long key) {
+            long mask = capacity - 1;
+            for (long slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                long reference = reference(slot);
+                if (reference == EMPTY) {
+                    return -1;
+                }
+                if (reference != DELETED && key(slot) == key) {
+                    return slot;
+                }
+            }
+        }
+
+        /**
+         * @return slot of the subscriber's entry, or else the slot a new entry goes into
+         */
+        long probe(long key) {
+            long mask = capacity - 1;
+            long firstDeleted = -1;
+            for (long slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                long reference = reference(slot);
+                if (reference == EMPTY) {
+                    return firstDeleted >= 0 ? firstDeleted : slot;
+                }
+                if (reference == DELETED) {
+                    if (firstDeleted < 0) {
+                        firstDeleted = slot;
+                    }
+                } else if (key(slot) == key) {
+                    return slot;
+                }
+            }
+        }
+
+        boolean isLive(long slot) {
+            return reference(slot) > 0;
+        }
+
+        boolean isDeleted(long slot) {
+            return reference(slot) == DELETED;
+        }
+
+        long key(long slot) {
+            return chunk(slot).getLong(offset(slot));
+        }
+
+        long position(long slot) {
+            return reference(slot) - 1;
+        }
+
+        void set(long slot, long key, long position) {
+            MappedByteBuffer chunk = chunk(slot);
+            int offset = offset(slot);
+            chunk.putLong(offset, key);
+            chunk.putLong(offset + Long.BYTES, position + 1);
+        }
+
+        void delete(long slot) {
+            chunk(slot).putLong(offset(slot) + Long.BYTES, DELETED);
+        }
+
+        long capacity() {
+            return capacity;
+        }
+
+        long size() {
+            return header.getLong(SIZE_AT);
+        }
+
+        void setSize(long size) {
+            header.putLong(SIZE_AT, size);
+        }
+
+        long deleted() {
+            return header.getLong(DELETED_AT);
+        }
+
+        void setDeleted(long deleted) {
+            header.putLong(DELETED_AT, deleted);
+        }
+
+        long generation() {
+            return header.getLong(GENERATION_AT);
+        }
+
+        long writePosition() {
+            return header.getLong(WRITE_POSITION_AT);
+        }
+
+        void setWritePosition(long writePosition) {
+            header.putLong(WRITE_POSITION_AT, writePosition);
+        }
+
+        long liveBytes() {
+            return header.getLong(LIVE_BYTES_AT);
+        }
+
+        void setLiveBytes(long liveBytes) {
+            header.putLong(LIVE_BYTES_AT, liveBytes);
+        }
+
+        int segmentSize() {
+            return header.getInt(SEGMENT_SIZE_AT);
+        }
+
+        boolean isClean() {
+            return header.getInt(CLEAN_AT) != 0;
+        }
+
+        void setClean(boolean clean) {
+            header.putInt(CLEAN_AT, clean ? 1 : 0);
+        }
+
+        void force() {
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+            header.force();
+        }
+
+        private long reference(long slot) {
+            return chunk(slot).getLong(offset(slot) + Long.BYTES);
+        }
+
+        private MappedByteBuffer chunk(long slot) {
+            return chunks[(int) (slot >>> CHUNK_SLOTS_SHIFT)];
+        }
+
+        private static int offset(long slot) {
+            return (int) (slot & (CHUNK_SLOTS - 1)) * SLOT_SIZE;
+        }
+
+        private static long hash(long key) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            key *= 0xc4ceb9fe1a85ec53L;
+            return key ^ (key >>> 33);
+        }
+    }
+
+    /**
+     * Append-only subscription records of one generation, spread over
+     * fixed-size segment files. A record never spans two segments.
+     */
+    private static final class DataLog {
+
+        private final Path directory;
+        private final long generation;
+        private final int segmentSize;
+        private final List<MappedByteBuffer> segments = new ArrayList<>();
+        private long writePosition;
+
+        DataLog(Path directory, long generation, int segmentSize, long writePosition) throws IOException {
+            this.directory = directory;
+            this.generation = generation;
+            this.segmentSize = segmentSize;
+            this.writePosition = writePosition;
+            for (int segment = 0; (long) segment * segmentSize < writePosition; segment++) {
+                segments.add(mapSegment(segment));
+            }
+        }
+
+        static int recordSize(byte[] endpoint, byte[] p256dh, byte[] auth) {
+            return Short.BYTES + endpoint.length + 1 + p256dh.length + 1 + auth.length;
+        }
+
+        long append(byte[] endpoint, byte[] p256dh, byte[] auth) throws IOException {
+            int size = recordSize(endpoint, p256dh, auth);
+            int segment = (int) (writePosition / segmentSize);
+            int offset = (int) (writePosition % segmentSize);
+            if (offset + size > segmentSize) {
+                segment++;
+                offset = 0;
+            }
+            while (segments.size() <= segment) {
+                segments.add(mapSegment(segments.size()));
+            }
+
+            MappedByteBuffer buffer = segments.get(segment);
+            int at = offset;
+            buffer.putShort(at, (short) endpoint.length);
+            buffer.put(at += Short.BYTES, endpoint);
+            buffer.put(at += endpoint.length, (byte) p256dh.length);
+            buffer.put(at += 1, p256dh);
+            buffer.put(at += p256dh.length, (byte) auth.length);
+            buffer.put(at + 1, auth);
+
+            long position = (long) segment * segmentSize + offset;
+            writePosition = position + size;
+            return position;
+        }
+
+        /**
+         * Reads a record straight out of the mapping, copying each field once.
+         */
+        StoredSubscription read(long position) {
+            MappedByteBuffer buffer = segments.get((int) (position / segmentSize));
+            int at = (int) (position % segmentSize);
+            byte[] endpoint = new byte[Short.toUnsignedInt(buffer.getShort(at))];
+            buffer.get(at += Short.BYTES, endpoint);
+            byte[] p256dh = new byte[Byte.toUnsignedInt(buffer.get(at += endpoint.length))];
+            buffer.get(at += 1, p256dh);
+            byte[] auth = new byte[Byte.toUnsignedInt(buffer.get(at += p256dh.length))];
+            buffer.get(at + 1, auth);
+            return new StoredSubscription(new String(endpoint, StandardCharsets.UTF_8), p256dh, auth);
+        }
+
+        int recordSize(long position) {
+            MappedByteBuffer buffer = segments.get((int) (position / segmentSize));
+            int at = (int) (position % segmentSize);
+            int endpointLength = Short.toUnsignedInt(buffer.getShort(at));
+            at += Short.BYTES + endpointLength;
+            int p256dhLength = Byte.toUnsignedInt(buffer.get(at));
+            at += 1 + p256dhLength;
+            int authLength = Byte.toUnsignedInt(buffer.get(at));
+            return Short.BYTES + endpointLength + 1 + p256dhLength + 1 + authLength;
+        }
+
+        long writePosition() {
+            return writePosition;
+        }
+
+        void force() {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+
+        private MappedByteBuffer mapSegment(int segment) throws IOException {
+            String name = String.format("%s%d-%05d", DATA_FILE_PREFIX, generation, segment);
+            return map(directory.resolve(name), 0, segmentSize);
+        }
+    }
+}
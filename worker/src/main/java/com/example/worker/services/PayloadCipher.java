@@ -0,0 +1,22 @@
+package com.example.worker.services;
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+
+/**
+ * Encrypts Web Push payloads with the {@code aes128gcm} content coding of
+ * RFC 8291. The implementation is selected with {@code worker.crypto.provider}.
+ */
+public interface PayloadCipher {
+
+    /**
+     * Encrypts the payload for a single subscription.
+     *
+     * @param payload       the plaintext payload
+     * @param userPublicKey the subscription's {@code p256dh} key
+     * @param userAuth      the subscription's {@code auth} secret
+     * @return the request body, including the {@code aes128gcm} header
+     * @throws GeneralSecurityException if encryption fails
+     */
+    byte[] encrypt(byte[] payload, PublicKey userPublicKey, byte[] userAuth) throws GeneralSecurityException;
+}
@@ -0,0 +1,73 @@
+package com.example.worker.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import nl.martijndwars.webpush.Utils;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Security;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache of decoded subscription {@code p256dh} keys, keyed by the raw
+ * key bytes. Decoding a key validates the point on the curve, which is wasted
+ * work when the same subscriber is pushed to again. Once the cache is full an
+ * arbitrary entry is evicted for every new key.
+ */
+@Component
+public class PublicKeyCache {
+
+    private static final String METRIC_PREFIX = "worker.crypto.public_key_cache";
+
+    private final Map<ByteBuffer, PublicKey> keys = new ConcurrentHashMap<>();
+    private final Counter hits;
+    private final Counter misses;
+
+    @Value("${worker.crypto.public-key-cache.capacity:100000}")
+    private int capacity;
+
+    @Autowired
+    public PublicKeyCache(MeterRegistry meterRegistry) {
+        Security.addProvider(new BouncyCastleProvider());
+        this.hits = meterRegistry.counter(METRIC_PREFIX + ".hits");
+        this.misses = meterRegistry.counter(METRIC_PREFIX + ".misses");
+        Gauge.builder(METRIC_PREFIX + ".size", keys, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Returns the decoded key, decoding and caching it on a miss.
+     *
+     * @param p256dh the uncompressed P-256 point of the subscription; must not be modified afterwards
+     * @return the public key
+     * @throws GeneralSecurityException if the bytes are not a valid P-256 point
+     */
+    public PublicKey get(byte[] p256dh) throws GeneralSecurityException {
+        ByteBuffer cacheKey = ByteBuffer.wrap(p256dh);
+        PublicKey key = keys.get(cacheKey);
+        if (key != null) {
+            hits.increment();
+            return key;
+        }
+
+        misses.increment();
+        key = Utils.loadPublicKey(p256dh);
+        if (keys.size() >= capacity) {
+            Iterator<ByteBuffer> eviction = keys.keySet().iterator();
+            if (eviction.hasNext()) {
+                eviction.next();
+                eviction.remove();
+            }
+        }
+        keys.put(cacheKey, key);
+        return key;
+    }
+}
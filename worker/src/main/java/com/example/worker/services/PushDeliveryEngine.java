@@ -0,0 +1,306 @@
+package com.example.worker.services;
+
+import com.example.worker.exceptions.InvalidPushRequest;
+import com.example.worker.exceptions.PushServiceUnavailable;
+import com.example.worker.models.PushResult;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import nl.martijndwars.webpush.HttpRequest;
+import nl.martijndwars.webpush.Notification;
+import org.jose4j.lang.JoseException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous Web Push delivery engine. Requests are sent over a shared
+ * non-blocking HTTP/2 client, so a single worker keeps thousands of pushes in
+ * flight without dedicating a thread to each of them. Each push-service host
+ * gets its own lane with an adaptive in-flight limit, a token-bucket rate
+ * limit and a circuit breaker, so a push service that throttles or fails only slows down
+ * its own traffic. While a host's circuit is open its pushes fail fast with
+ * {@link PushServiceUnavailable} and are left to the retry topics.
+ */
+@Service
+public class PushDeliveryEngine {
+
+    private static final String RETRY_AFTER_HEADER = "Retry-After";
+    private static final String METRIC_PREFIX = "worker.delivery.host";
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVER_ERROR = 500;
+
+    private final PushRequestFactory requestFactory;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, HostLane<PendingPush>> lanes = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    @Value("${worker.delivery.max-in-flight-per-host:512}")
+    private int maxInFlightPerHost;
+
+    @Value("${worker.delivery.adaptive.enabled:true}")
+    private boolean adaptiveLimitEnabled;
+
+    @Value("${worker.delivery.adaptive.initial-limit:64}")
+    private int initialLimit;
+
+    @Value("${worker.delivery.adaptive.min-limit:8}")
+    private int minLimit;
+
+    @Value("${worker.delivery.adaptive.latency-target:1s}")
+    private Duration latencyTarget;
+
+    @Value("${worker.delivery.adaptive.error-rate-threshold:0.1}")
+    private double errorRateThreshold;
+
+    @Value("${worker.delivery.adaptive.window:250ms}")
+    private Duration limitWindow;
+
+    @Value("${worker.delivery.host-rate:1000}")
+    private double hostRate;
+
+    @Value("${worker.delivery.host-burst:1000}")
+    private int hostBurst;
+
+    @Value("${worker.delivery.circuit.failure-threshold:50}")
+    private int circuitFailureThreshold;
+
+    @Value("${worker.delivery.circuit.open-duration:30s}")
+    private Duration circuitOpenDuration;
+
+    @Value("${worker.delivery.connect-timeout:10s}")
+    private Duration connectTimeout;
+
+    @Value("${worker.delivery.request-timeout:30s}")
+    private Duration requestTimeout;
+
+    @Value("${worker.delivery.io-threads:2}")
+    private int ioThreads;
+
+    @Value("${worker.delivery.encryption-threads:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")
+    private int encryptionThreads;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private Executor executor;
+    private ExecutorService encryptionExecutor;
+    private ScheduledExecutorService scheduler;
+    private HttpClient httpClient;
+
+    @Autowired
+    public PushDeliveryEngine(PushRequestFactory requestFactory, MeterRegistry meterRegistry) {
+        this.requestFactory = requestFactory;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Creates the shared HTTP client, the scheduler that releases rate-limited
+     * dispatches and the pool that prepares and encrypts requests. Response
+     * callbacks run on a small platform-thread pool or, with virtual threads
+     * enabled, on a virtual thread each; they and the scheduler only hand the
+     * next queued push of the host over to the encryption pool, which has one
+     * thread per core by default, so encryption is never serialized onto them.
+     */
+    @PostConstruct
+    private void init() {
+        executor = virtualThreads
+                ? new VirtualThreadTaskExecutor("push-io-")
+                : Executors.newFixedThreadPool(ioThreads);
+        AtomicInteger encryptionThread = new AtomicInteger();
+        encryptionExecutor = Executors.newFixedThreadPool(encryptionThreads, runnable -> {
+            Thread thread = new Thread(runnable, "push-encrypt-" + encryptionThread.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "push-rate-limiter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .executor(executor)
+                .build();
+        Gauge.builder("worker.delivery.outstanding", outstanding, AtomicInteger::get).register(meterRegistry);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        scheduler.shutdown();
+        encryptionExecutor.shutdown();
+        if (executor instanceof ExecutorService executorService) {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Queues the notification for delivery to its push service.
+     *
+     * @param notification the notification to deliver
+     * @return future completed with the push-service response, or exceptionally
+     * with {@link InvalidPushRequest} if the request could not be prepared,
+     * with {@link PushServiceUnavailable} if the host's circuit is open, or
+     * with the transport error if it could not be sent
+     */
+    public CompletableFuture<PushResult> deliver(Notification notification) {
+        String host;
+        try {
+            host = URI.create(notification.getEndpoint()).getHost();
+            if (host == null) {
+                throw new IllegalArgumentException("Endpoint without a host: " + notification.getEndpoint());
+            }
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new InvalidPushRequest(e));
+        }
+
+        PendingPush push = new PendingPush(notification, host);
+        outstanding.incrementAndGet();
+        push.result.whenComplete((result, error) -> outstanding.decrementAndGet());
+        lanes.computeIfAbsent(push.host, this::createLane).submit(push);
+        return push.result;
+    }
+
+    /**
+     * @return number of pushes accepted by {@link #deliver} that have not
+     * completed yet, whether queued, waiting for a rate-limit permit or in flight
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return number of requests currently awaiting a push-service response
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private HostLane<PendingPush> createLane(String host) {
+        AdaptiveLimit limit = adaptiveLimitEnabled
+                ? new AdaptiveLimit(initialLimit, minLimit, maxInFlightPerHost, latencyTarget, errorRateThreshold, limitWindow)
+                : new AdaptiveLimit(maxInFlightPerHost, maxInFlightPerHost, maxInFlightPerHost, latencyTarget, errorRateThreshold, limitWindow);
+        HostLane<PendingPush> lane = new HostLane<>(
+                limit,
+                new TokenBucket(hostRate, hostBurst),
+                new CircuitBreaker(circuitFailureThreshold, circuitOpenDuration),
+                scheduler,
+                this::dispatchAsync,
+                (push, open) -> push.result.completeExceptionally(new PushServiceUnavailable(push.host, open)));
+        Gauge.builder(METRIC_PREFIX + ".in_flight", lane, HostLane::getInFlight)
+                .tag("host", host)
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".pending", lane, HostLane::getPending)
+                .tag("host", host)
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".limit", lane, HostLane::getLimit)
+                .tag("host", host)
+                .register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".circuit_open", lane, l -> l.isCircuitOpen() ? 1 : 0)
+                .tag("host", host)
+                .register(meterRegistry);
+        return lane;
+    }
+
+    private void dispatchAsync(PendingPush push, CircuitBreaker.Permit permit) {
+        try {
+            encryptionExecutor.execute(() -> dispatch(push, permit));
+        } catch (RejectedExecutionException e) {
+            // The engine is shutting down; free the slot, and the probe if this push held it.
+            lanes.get(push.host).release(permit, null, null, 0);
+            push.result.completeExceptionally(e);
+        }
+    }
+
+    private void dispatch(PendingPush push, CircuitBreaker.Permit permit) {
+        HostLane<PendingPush> lane = lanes.get(push.host);
+        java.net.http.HttpRequest request;
+        try {
+            request = toHttpRequest(requestFactory.build(push.notification));
+        } catch (GeneralSecurityException | IOException | JoseException | RuntimeException e) {
+            lane.release(permit, null, null, 0);
+            push.result.completeExceptionally(new InvalidPushRequest(e));
+            return;
+        }
+
+        inFlight.incrementAndGet();
+        long sentAt = System.nanoTime();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    inFlight.decrementAndGet();
+                    if (error != null) {
+                        lane.release(permit, false, null, System.nanoTime() - sentAt);
+                        push.result.completeExceptionally(error);
+                        return;
+                    }
+                    int statusCode = response.statusCode();
+                    Duration retryAfter = parseRetryAfter(response.headers().firstValue(RETRY_AFTER_HEADER).orElse(null));
+                    lane.release(permit, statusCode != TOO_MANY_REQUESTS && statusCode < SERVER_ERROR, retryAfter,
+                            System.nanoTime() - sentAt);
+                    push.result.complete(new PushResult(push.notification.getEndpoint(), statusCode, retryAfter));
+                });
+    }
+
+    private static Duration parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                Duration delay = Duration.between(ZonedDateTime.now(), date);
+                return delay.isNegative() ? Duration.ZERO : delay;
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+
+    private java.net.http.HttpRequest toHttpRequest(HttpRequest prepared) {
+        java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder(URI.create(prepared.getUrl()))
+                .timeout(requestTimeout);
+        prepared.getHeaders().forEach(builder::header);
+        byte[] body = prepared.getBody();
+        return builder
+                .POST(body == null
+                        ? java.net.http.HttpRequest.BodyPublishers.noBody()
+                        : java.net.http.HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+    }
+
+    private static final class PendingPush {
+        private final Notification notification;
+        private final String host;
+        private final CompletableFuture<PushResult> result = new CompletableFuture<>();
+
+        private PendingPush(Notification notification, String host) {
+            this.notification = notification;
+            this.host = host;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.worker.services;
+
+import nl.martijndwars.webpush.HttpRequest;
+import nl.martijndwars.webpush.Notification;
+import org.jose4j.lang.JoseException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds encrypted and VAPID-signed Web Push requests without sending them,
+ * so that the transport can be chosen by the caller.
+ */
+@Component
+public class PushRequestFactory {
+
+    private static final String FCM_ENDPOINT = "https://fcm.googleapis.com";
+    private static final String FCM_LEGACY_PATH = "fcm/send";
+    private static final String FCM_WEB_PUSH_PATH = "wp";
+    private static final String CONTENT_TYPE = "application/octet-stream";
+    private static final String CONTENT_ENCODING = "aes128gcm";
+
+    private final VapidHeaderCache vapidHeaderCache;
+    private final PayloadCipher payloadCipher;
+
+    @Autowired
+    public PushRequestFactory(VapidHeaderCache vapidHeaderCache, PayloadCipher payloadCipher) {
+        this.vapidHeaderCache = vapidHeaderCache;
+        this.payloadCipher = payloadCipher;
+    }
+
+    /**
+     * Encrypts the notification payload and prepares the push request.
+     *
+     * @param notification the notification to prepare
+     * @return the request with endpoint URL, headers and encrypted body
+     * @throws GeneralSecurityException if encryption fails
+     * @throws IOException              if the endpoint is not a valid URL
+     * @throws JoseException            if VAPID signing fails
+     */
+    public HttpRequest build(Notification notification)
+            throws GeneralSecurityException, IOException, JoseException {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("TTL", String.valueOf(notification.getTTL()));
+        if (notification.hasUrgency()) {
+            headers.put("Urgency", notification.getUrgency().getHeaderValue());
+        }
+        if (notification.hasTopic()) {
+            headers.put("Topic", notification.getTopic());
+        }
+
+        byte[] body = null;
+        if (notification.hasPayload()) {
+            headers.put("Content-Type", CONTENT_TYPE);
+            headers.put("Content-Encoding", CONTENT_ENCODING);
+            body = payloadCipher.encrypt(
+                    notification.getPayload(),
+                    notification.getUserPublicKey(),
+                    notification.getUserAuth());
+        }
+
+        String url = notification.getEndpoint();
+        if (url.startsWith(FCM_ENDPOINT)) {
+            url = url.replace(FCM_LEGACY_PATH, FCM_WEB_PUSH_PATH);
+        }
+        headers.put("Authorization", vapidHeaderCache.authorization(notification.getOrigin()));
+
+        return new HttpRequest(url, headers, body);
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.worker.services;
+
+import com.example.worker.configurations.KafkaConfiguration;
+import com.example.worker.exceptions.InvalidPushRequest;
+import com.example.worker.exceptions.PushServiceUnavailable;
+import com.example.worker.models.DeliveryOutcome;
+import com.example.worker.models.PushResult;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Routes failed pushes off the main partition. Pushes that failed with 429, a
+ * 5xx status, a transport error or an open circuit are republished to the next retry tier topic
+ * with the time they become due; all other failures, and retries that are
+ * exhausted, go to the dead-letter topic together with the failure reason.
+ * Rejections by an open circuit are retried without counting as an attempt.
+ * A retry is due after the delay of its tier, however long the push service
+ * asked to wait, so a tier never holds a record for longer than its delay.
+ * Records are republished byte for byte, whatever their wire format; a failed
+ * push of a fan-out record is republished as a single-subscriber record. A
+ * republish that fails is sent again, up to {@code worker.retry.send-attempts}
+ * times with a doubling backoff, before the routing future fails.
+ */
+@Slf4j
+@Service
+public class RetryRouter {
+
+    public static final String ATTEMPT_HEADER = "push-retry-attempt";
+    public static final String NOT_BEFORE_HEADER = "push-retry-not-before";
+    public static final String FAILURE_STATUS_HEADER = "push-failure-status";
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVER_ERROR = 500;
+    private static final Set<String> ROUTING_HEADERS = Set.of(
+            ATTEMPT_HEADER, NOT_BEFORE_HEADER, FAILURE_STATUS_HEADER, KafkaHeaders.DLT_EXCEPTION_MESSAGE);
+
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final List<Duration> delays;
+
+    @Value("${worker.retry.send-attempts:3}")
+    private int sendAttempts;
+
+    @Value("${worker.retry.send-backoff:1s}")
+    private Duration sendBackoff;
+
+    @Autowired
+    public RetryRouter(
+            ProducerFactory<String, byte[]> producerFactory,
+            @Value("${worker.retry.delays:10s,1m,10m}") List<Duration> delays) {
+        this.kafkaTemplate = new KafkaTemplate<>(producerFactory,
+                Map.of(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class));
+        this.delays = delays;
+    }
+
+    /**
+     * Republishes the record to a retry or dead-letter topic if its push failed.
+     *
+     * @param record the consumed record
+     * @param result the push-service response, or null if the push failed with an error
+     * @param error  the failure, or null if the push service answered
+     * @return future completed with the outcome of the push once the record has
+     * been republished, or right away if nothing needed to be republished;
+     * completed exceptionally if the record could not be republished
+     */
+    public CompletableFuture<DeliveryOutcome> route(
+            ConsumerRecord<String, byte[]> record, PushResult result, Throwable error) {
+        return route(record, record::value, result, error);
+    }
+
+    /**
+     * Republishes a push of the record to a retry or dead-letter topic if it failed.
+     *
+     * @param record the consumed record
+     * @param value  supplies the value to republish in place of the record value
+     * @param result the push-service response, or null if the push failed with an error
+     * @param error  the failure, or null if the push service answered
+     * @return future completed with the outcome of the push once the value has
+     * been republished, or right away if nothing needed to be republished;
+     * completed exceptionally if the value could not be republished
+     */
+    public CompletableFuture<DeliveryOutcome> route(
+            ConsumerRecord<String, byte[]> record, Supplier<byte[]> value, PushResult result, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause == null && result.isSuccessful()) {
+            return CompletableFuture.completedFuture(DeliveryOutcome.DELIVERED);
+        }
+        if (cause == null && SubscriptionFeedbackService.isExpired(result.getStatusCode())) {
+            return CompletableFuture.completedFuture(DeliveryOutcome.EXPIRED);
+        }
+
+        String reason = cause != null ? cause.toString() : "push service answered " + result.getStatusCode();
+        if (!isRetryable(result, cause)) {
+            return deadLetter(record, value.get(), result, reason).thenApply(sent -> DeliveryOutcome.FAILED);
+        }
+
+        int attempt = header(record.headers(), ATTEMPT_HEADER);
+        if (attempt >= delays.size()) {
+            return deadLetter(record, value.get(), result, "retries exhausted, last failure: " + reason)
+                    .thenApply(sent -> DeliveryOutcome.FAILED);
+        }
+
+        Duration retryAfter = retryAfter(result, cause);
+        int tier = attempt;
+        while (tier < delays.size() - 1 && delays.get(tier).compareTo(retryAfter) < 0) {
+            tier++;
+        }
+        // A Retry-After beyond the last tier is cut to its delay: a later NOT_BEFORE would keep the record
+        // at the head of its tier partition, and every record behind it, waiting for that long.
+        Duration delay = delays.get(tier);
+
+        // A push rejected by an open circuit never reached the push service, so it does not use up an attempt.
+        int nextAttempt = cause instanceof PushServiceUnavailable ? attempt : tier + 1;
+        ProducerRecord<String, byte[]> retry = copyOf(record, KafkaConfiguration.retryTopic(tier), value.get());
+        retry.headers().add(ATTEMPT_HEADER, intBytes(nextAttempt));
+        retry.headers().add(NOT_BEFORE_HEADER, longBytes(System.currentTimeMillis() + delay.toMillis()));
+        return send(retry).thenApply(sent -> DeliveryOutcome.RETRYING);
+    }
+
+    /**
+     * Republishes the record to the dead-letter topic.
+     *
+     * @param record the consumed record
+     * @param reason the failure reason
+     * @return future completed once the record has been republished,
+     * exceptionally if it could not be
+     */
+    public CompletableFuture<Void> deadLetter(ConsumerRecord<String, byte[]> record, String reason) {
+        return deadLetter(record, record.value(), null, reason);
+    }
+
+    /**
+     * Publishes a value derived from the record to the dead-letter topic.
+     *
+     * @param record the consumed record
+     * @param value  the value to publish in place of the record value
+     * @param reason the failure reason
+     * @return future completed once the value has been published,
+     * exceptionally if it could not be
+     */
+    public CompletableFuture<Void> deadLetter(ConsumerRecord<String, byte[]> record, byte[] value, String reason) {
+        return deadLetter(record, value, null, reason);
+    }
+
+    /**
+     * @param record the consumed retry record
+     * @return how long until the record is due, zero or negative if it is due
+     */
+    public long remainingDelayMillis(ConsumerRecord<String, byte[]> record) {
+        Header notBefore = record.headers().lastHeader(NOT_BEFORE_HEADER);
+        if (notBefore == null) {
+            return 0;
+        }
+        return ByteBuffer.wrap(notBefore.value()).getLong() - System.currentTimeMillis();
+    }
+
+    private CompletableFuture<Void> deadLetter(
+            ConsumerRecord<String, byte[]> record, byte[] value, PushResult result, String reason) {
+        ProducerRecord<String, byte[]> deadLetter = copyOf(record, KafkaConfiguration.DEAD_LETTER_TOPIC, value);
+        deadLetter.headers().add(KafkaHeaders.DLT_EXCEPTION_MESSAGE, reason.getBytes(StandardCharsets.UTF_8));
+        if (result != null) {
+            deadLetter.headers().add(FAILURE_STATUS_HEADER, intBytes(result.getStatusCode()));
+        }
+        return send(deadLetter);
+    }
+
+    private ProducerRecord<String, byte[]> copyOf(ConsumerRecord<String, byte[]> record, String topic, byte[] value) {
+        ProducerRecord<String, byte[]> copy = new ProducerRecord<>(topic, record.key(), value);
+        for (Header header : record.headers()) {
+            if (!ROUTING_HEADERS.contains(header.key())) {
+                copy.headers().add(header);
+            }
+        }
+        if (copy.headers().lastHeader(KafkaHeaders.DLT_ORIGINAL_TOPIC) == null) {
+            copy.headers().add(KafkaHeaders.DLT_ORIGINAL_TOPIC, record.topic().getBytes(StandardCharsets.UTF_8));
+            copy.headers().add(KafkaHeaders.DLT_ORIGINAL_PARTITION, intBytes(record.partition()));
+            copy.headers().add(KafkaHeaders.DLT_ORIGINAL_OFFSET, longBytes(record.offset()));
+        }
+        return copy;
+    }
+
+    private CompletableFuture<Void> send(ProducerRecord<String, byte[]> record) {
+        return send(record, 1, sendBackoff);
+    }
+
+    private CompletableFuture<Void> send(ProducerRecord<String, byte[]> record, int attempt, Duration backoff) {
+        CompletableFuture<Void> sent;
+        try {
+            sent = kafkaTemplate.send(record).thenAccept(sendResult -> { });
+        } catch (RuntimeException e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        return sent.exceptionallyCompose(error -> {
+            if (attempt >= sendAttempts) {
+                log.error("Could not republish record to {} in {} attempts", record.topic(), attempt, error);
+                return CompletableFuture.failedFuture(error);
+            }
+            log.warn("Could not republish record to {}, sending it again in {}", record.topic(), backoff, error);
+            Executor delayed = CompletableFuture.delayedExecutor(backoff.toMillis(), TimeUnit.MILLISECONDS);
+            return CompletableFuture.supplyAsync(() -> send(record, attempt + 1, backoff.multipliedBy(2)), delayed)
+                    .thenCompose(next -> next);
+        });
+    }
+
+    private static Duration retryAfter(PushResult result, Throwable cause) {
+        if (cause instanceof PushServiceUnavailable unavailable) {
+            return unavailable.getRetryAfter();
+        }
+        return result != null && result.getRetryAfter() != null ? result.getRetryAfter() : Duration.ZERO;
+    }
+
+    private static boolean isRetryable(PushResult result, Throwable cause) {
+        if (cause != null) {
+            return !(cause instanceof InvalidPushRequest);
+        }
+        return result.getStatusCode() == TOO_MANY_REQUESTS || result.getStatusCode() >= SERVER_ERROR;
+    }
+
+    private static int header(Headers headers, String key) {
+        Header header = headers.lastHeader(key);
+        return header == null ? 0 : ByteBuffer.wrap(header.value()).getInt();
+    }
+
+    private static byte[] intBytes(int value) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+    }
+
+    private static byte[] longBytes(long value) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+    }
+}
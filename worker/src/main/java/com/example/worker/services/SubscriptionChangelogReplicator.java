@@ -0,0 +1,247 @@
+package com.example.worker.services;
+
+import com.example.worker.configurations.KafkaConfiguration;
+import com.example.worker.models.StoredSubscription;
+import com.example.worker.serialization.SubscriptionChangelogDeserializer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.config.KafkaListenerContainerFactory;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.config.MethodKafkaListenerEndpoint;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.kafka.support.TopicPartitionOffset;
+import org.springframework.messaging.handler.annotation.support.DefaultMessageHandlerMethodFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.ReflectionUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Materializes the subscriptions changelog topic into the {@link SubscriptionStore}.
+ * Before the listener containers start, the changelog is read up to its end
+ * offsets, so fan-out records are only consumed once the store is complete;
+ * startup fails if that does not succeed. Afterwards the changelog listener
+ * keeps the store up to date, on the partitions the broker reported to the
+ * bootstrap. Both resume from the offsets recorded in the store. The store is
+ * only needed to resolve fan-out records, so replication is off unless
+ * {@code worker.changelog.enabled=true}, which belongs with
+ * {@code notification.kafka.fan-out.enabled=true} in notification_service.
+ */
+@Slf4j
+@Service
+public class SubscriptionChangelogReplicator implements SmartLifecycle, ConsumerSeekAware {
+
+    public static final String CHANGELOG_LISTENER_ID = "subscriptionChangelogListener";
+
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+
+    private final SubscriptionStore subscriptionStore;
+    private final ConsumerFactory<String, byte[]> consumerFactory;
+    private final KafkaListenerEndpointRegistry registry;
+    private final KafkaListenerContainerFactory<?> changelogContainerFactory;
+    private final BeanFactory beanFactory;
+    private final MeterRegistry meterRegistry;
+    private final SubscriptionChangelogDeserializer deserializer = new SubscriptionChangelogDeserializer();
+
+    @Value("${worker.changelog.enabled:false}")
+    private boolean enabled;
+
+    @Value("${worker.changelog.bootstrap-timeout:5m}")
+    private Duration bootstrapTimeout;
+
+    private volatile boolean running;
+
+    @Autowired
+    public SubscriptionChangelogReplicator(
+            SubscriptionStore subscriptionStore,
+            ConsumerFactory<String, byte[]> consumerFactory,
+            KafkaListenerEndpointRegistry registry,
+            @Qualifier("changelogKafkaListenerContainerFactory") KafkaListenerContainerFactory<?> changelogContainerFactory,
+            BeanFactory beanFactory,
+            MeterRegistry meterRegistry) {
+        this.subscriptionStore = subscriptionStore;
+        this.consumerFactory = consumerFactory;
+        this.registry = registry;
+        this.changelogContainerFactory = changelogContainerFactory;
+        this.beanFactory = beanFactory;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Reads the changelog up to its current end before the listener containers
+     * start, then starts the changelog listener on the same partitions.
+     *
+     * @throws IllegalStateException if the changelog could not be read up to
+     *                               its end, which stops the application from starting
+     */
+    @Override
+    public void start() {
+        Gauge.builder("worker.subscription_store.size", subscriptionStore, SubscriptionStore::size)
+                .register(meterRegistry);
+        if (enabled && registry.getListenerContainer(CHANGELOG_LISTENER_ID) == null) {
+            List<TopicPartition> partitions;
+            try {
+                partitions = bootstrap();
+            } catch (RuntimeException e) {
+                throw new IllegalStateException("Could not bootstrap the subscription store from "
+                        + KafkaConfiguration.SUBSCRIPTIONS_CHANGELOG_TOPIC, e);
+            }
+            startListener(partitions);
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Runs before the listener containers, which start in the default container phase.
+     *
+     * @return the lifecycle phase
+     */
+    @Override
+    public int getPhase() {
+        return AbstractMessageListenerContainer.DEFAULT_PHASE - 1;
+    }
+
+    /**
+     * Applies a changelog record to the store. Called by the changelog
+     * listener, which is assigned every partition of the changelog without a
+     * consumer group.
+     *
+     * @param record an upsert, or a tombstone for a deleted subscriber
+     */
+    public void apply(ConsumerRecord<String, byte[]> record) {
+        try {
+            long subscriberId = Long.parseLong(record.key());
+            StoredSubscription subscription = deserializer.deserialize(record.topic(), record.value());
+            if (subscription == null) {
+                subscriptionStore.remove(subscriberId);
+            } else {
+                subscriptionStore.put(subscriberId, subscription);
+            }
+        } catch (NumberFormatException | SerializationException e) {
+            log.warn("Skipping changelog record {}-{}@{}", record.topic(), record.partition(), record.offset(), e);
+        }
+        subscriptionStore.markApplied(record.partition(), record.offset());
+    }
+
+    /**
+     * Moves the changelog listener to the first record the store has not applied.
+     */
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        for (TopicPartition partition : assignments.keySet()) {
+            long applied = subscriptionStore.appliedOffset(partition.partition());
+            if (applied >= 0) {
+                callback.seek(partition.topic(), partition.partition(), applied + 1);
+            } else {
+                callback.seekToBeginning(List.of(partition));
+            }
+        }
+    }
+
+    /**
+     * Registers and starts the changelog listener container on the partitions.
+     */
+    private void startListener(List<TopicPartition> partitions) {
+        DefaultMessageHandlerMethodFactory handlerMethodFactory = new DefaultMessageHandlerMethodFactory();
+        handlerMethodFactory.setBeanFactory(beanFactory);
+        handlerMethodFactory.afterPropertiesSet();
+        Properties consumerProperties = new Properties();
+        consumerProperties.setProperty(
+                ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+
+        MethodKafkaListenerEndpoint<String, byte[]> endpoint = new MethodKafkaListenerEndpoint<>();
+        endpoint.setId(CHANGELOG_LISTENER_ID);
+        endpoint.setTopicPartitions(partitions.stream()
+                .map(partition -> new TopicPartitionOffset(partition.topic(), partition.partition()))
+                .toArray(TopicPartitionOffset[]::new));
+        endpoint.setBean(this);
+        endpoint.setMethod(ReflectionUtils.findMethod(getClass(), "apply", ConsumerRecord.class));
+        endpoint.setMessageHandlerMethodFactory(handlerMethodFactory);
+        endpoint.setConsumerProperties(consumerProperties);
+        registry.registerListenerContainer(endpoint, changelogContainerFactory, true);
+    }
+
+    /**
+     * @return the partitions of the changelog
+     * @throws IllegalStateException if the changelog was not read up to its end in time
+     */
+    private List<TopicPartition> bootstrap() {
+        long started = System.nanoTime();
+        Properties overrides = new Properties();
+        overrides.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        overrides.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        try (Consumer<String, byte[]> consumer = consumerFactory.createConsumer(
+                null, CHANGELOG_LISTENER_ID + "-bootstrap", null, overrides)) {
+            List<TopicPartition> partitions = new ArrayList<>();
+            for (PartitionInfo info : consumer.partitionsFor(KafkaConfiguration.SUBSCRIPTIONS_CHANGELOG_TOPIC)) {
+                partitions.add(new TopicPartition(info.topic(), info.partition()));
+            }
+            consumer.assign(partitions);
+            for (TopicPartition partition : partitions) {
+                long applied = subscriptionStore.appliedOffset(partition.partition());
+                if (applied >= 0) {
+                    consumer.seek(partition, applied + 1);
+                } else {
+                    consumer.seekToBeginning(List.of(partition));
+                }
+            }
+
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+            long deadline = System.nanoTime() + bootstrapTimeout.toNanos();
+            long applied = 0;
+            while (!caughtUp(consumer, endOffsets)) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("Subscription store bootstrap timed out after "
+                            + bootstrapTimeout + " with " + applied + " records applied");
+                }
+                ConsumerRecords<String, byte[]> records = consumer.poll(POLL_TIMEOUT);
+                for (ConsumerRecord<String, byte[]> record : records) {
+                    apply(record);
+                }
+                applied += records.count();
+            }
+            log.info("Applied {} changelog records in {} ms, {} subscriptions in the store",
+                    applied, Duration.ofNanos(System.nanoTime() - started).toMillis(), subscriptionStore.size());
+            return partitions;
+        }
+    }
+
+    private static boolean caughtUp(Consumer<String, byte[]> consumer, Map<TopicPartition, Long> endOffsets) {
+        for (Map.Entry<TopicPartition, Long> end : endOffsets.entrySet()) {
+            if (consumer.position(end.getKey()) < end.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.worker.services;
+
+import com.example.worker.configurations.KafkaConfiguration;
+import com.example.worker.models.PushResult;
+import com.example.worker.models.SubscriptionExpiredEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * Reports subscriptions that push services no longer accept back to
+ * notification_service, which deletes them so they are not pushed again.
+ */
+@Slf4j
+@Service
+public class SubscriptionFeedbackService {
+
+    private static final int NOT_FOUND = 404;
+    private static final int GONE = 410;
+
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final ObjectMapper mapper;
+
+    @Autowired
+    public SubscriptionFeedbackService(KafkaTemplate<String, String> kafkaTemplate, ObjectMapper mapper) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Publishes an expired-subscription event if the push service answered
+     * that the subscription is gone for good.
+     *
+     * @param subscriberId the ID of the subscriber the push was sent to
+     * @param result       the push-service response
+     */
+    public void report(Long subscriberId, PushResult result) {
+        if (subscriberId == null || !isExpired(result.getStatusCode())) {
+            return;
+        }
+
+        SubscriptionExpiredEvent event = new SubscriptionExpiredEvent(
+                subscriberId, result.getEndpoint(), result.getStatusCode());
+        try {
+            kafkaTemplate.send(
+                    KafkaConfiguration.SUBSCRIPTION_FEEDBACK_TOPIC,
+                    String.valueOf(subscriberId),
+                    mapper.writeValueAsString(event));
+        } catch (JsonProcessingException e) {
+            log.warn("Could not report expired subscription {}", subscriberId, e);
+        }
+    }
+
+    /**
+     * @param statusCode the push-service response status
+     * @return true if the status means the subscription is gone for good
+     */
+    public static boolean isExpired(int statusCode) {
+        return statusCode == NOT_FOUND || statusCode == GONE;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.worker.services;
+
+import com.example.worker.models.StoredSubscription;
+
+/**
+ * Worker-local replica of the subscriptions, used to resolve the subscriber
+ * IDs of fan-out records without a round trip to notification_service. The
+ * store is fed from the subscriptions changelog topic and also records how
+ * far into each changelog partition it has applied, so a store that keeps its
+ * state across restarts resumes from there instead of replaying the topic.
+ */
+public interface SubscriptionStore {
+
+    /**
+     * @param subscriberId the subscriber ID
+     * @return the subscription, or null if the subscriber is not known
+     */
+    StoredSubscription get(long subscriberId);
+
+    /**
+     * Adds or replaces the subscription of a subscriber.
+     *
+     * @param subscriberId the subscriber ID
+     * @param subscription the subscription
+     */
+    void put(long subscriberId, StoredSubscription subscription);
+
+    /**
+     * Removes the subscription of a subscriber.
+     *
+     * @param subscriberId the subscriber ID
+     */
+    void remove(long subscriberId);
+
+    /**
+     * @return number of stored subscriptions
+     */
+    int size();
+
+    /**
+     * @param partition the changelog partition
+     * @return offset of the last record applied from the partition, or -1 if none
+     */
+    long appliedOffset(int partition);
+
+    /**
+     * Records that the changelog has been applied up to and including the offset.
+     *
+     * @param partition the changelog partition
+     * @param offset    the offset of the last applied record
+     */
+    void markApplied(int partition, long offset);
+}
@@ -0,0 +1,41 @@
+package com.example.worker.services;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token-bucket rate limiter. Permits are reserved rather than polled: a caller
+ * always gets its permit and is told how long to wait before using it, so
+ * callers never spin while the bucket refills.
+ */
+class TokenBucket {
+
+    private final double permitsPerNano;
+    private final double capacity;
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * @param permitsPerSecond sustained rate
+     * @param burst            number of permits that may be used at once after an idle period
+     */
+    TokenBucket(double permitsPerSecond, int burst) {
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(1, burst);
+        this.tokens = capacity;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Reserves a single permit.
+     *
+     * @return nanoseconds to wait before the permit may be used, zero if it may
+     * be used right away
+     */
+    synchronized long reserve() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * permitsPerNano);
+        refilledAt = now;
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / permitsPerNano);
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.worker.services;
+
+import jakarta.annotation.PostConstruct;
+import nl.martijndwars.webpush.Base64Encoder;
+import nl.martijndwars.webpush.Utils;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jose4j.jws.AlgorithmIdentifiers;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.jwt.JwtClaims;
+import org.jose4j.jwt.NumericDate;
+import org.jose4j.lang.JoseException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Security;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of signed VAPID {@code Authorization} headers keyed by push-service
+ * audience origin. There are only a few push-service origins, so a header is
+ * ES256-signed roughly once per origin per token lifetime instead of once per
+ * message. Headers are re-signed {@code worker.vapid.refresh-ahead} before the
+ * {@code exp} claim of their token.
+ */
+@Component
+public class VapidHeaderCache {
+
+    private static final String JWT_TYPE = "JWT";
+
+    private final Map<String, CachedHeader> headers = new ConcurrentHashMap<>();
+
+    @Value("${key.private}")
+    private String vapidPrivateKey;
+
+    @Value("${key.public}")
+    private String vapidPublicKey;
+
+    @Value("${worker.vapid.subject:#{null}}")
+    private String subject;
+
+    @Value("${worker.vapid.token-ttl:12h}")
+    private Duration tokenTtl;
+
+    @Value("${worker.vapid.refresh-ahead:1h}")
+    private Duration refreshAhead;
+
+    private PrivateKey privateKey;
+    private String encodedPublicKey;
+
+    /**
+     * Loads and verifies the VAPID key pair with BouncyCastle provider.
+     *
+     * @throws GeneralSecurityException if security initialization fails
+     */
+    @PostConstruct
+    private void init() throws GeneralSecurityException {
+        Security.addProvider(new BouncyCastleProvider());
+        PublicKey publicKey = Utils.loadPublicKey(vapidPublicKey);
+        privateKey = Utils.loadPrivateKey(vapidPrivateKey);
+        if (!Utils.verifyKeyPair(privateKey, publicKey)) {
+            throw new IllegalStateException("Public key and private key do not match.");
+        }
+        encodedPublicKey = Base64Encoder.encodeUrlWithoutPadding(Utils.encode((ECPublicKey) publicKey));
+    }
+
+    /**
+     * Returns the VAPID authorization header for a push-service origin, signing
+     * a new token if there is none or the cached one is about to expire.
+     *
+     * @param audience the origin of the push service
+     * @return the {@code Authorization} header value
+     * @throws JoseException if signing fails
+     */
+    public String authorization(String audience) throws JoseException {
+        long now = System.currentTimeMillis();
+        CachedHeader cached = headers.get(audience);
+        if (cached != null && now < cached.refreshAt) {
+            return cached.value;
+        }
+
+        long expiresAt = now + tokenTtl.toMillis();
+        String value = "vapid t=" + sign(audience, expiresAt) + ", k=" + encodedPublicKey;
+        headers.put(audience, new CachedHeader(value, expiresAt - refreshAhead.toMillis()));
+        return value;
+    }
+
+    private String sign(String audience, long expiresAt) throws JoseException {
+        JwtClaims claims = new JwtClaims();
+        claims.setAudience(audience);
+        claims.setExpirationTime(NumericDate.fromMilliseconds(expiresAt));
+        if (subject != null) {
+            claims.setSubject(subject);
+        }
+
+        JsonWebSignature jws = new JsonWebSignature();
+        jws.setHeader("typ", JWT_TYPE);
+        jws.setPayload(claims.toJson());
+        jws.setKey(privateKey);
+        jws.setAlgorithmHeaderValue(AlgorithmIdentifiers.ECDSA_USING_P256_CURVE_AND_SHA256);
+        return jws.getCompactSerialization();
+    }
+
+    private static final class CachedHeader {
+        private final String value;
+        private final long refreshAt;
+
+        private CachedHeader(String value, long refreshAt) {
+            this.value = value;
+            this.refreshAt = refreshAt;
+        }
+    }
+}
@@ -1,88 +1,292 @@
 package com.example.worker.services;
 
-import com.example.worker.models.NotificationSendDTO;
+import com.example.worker.configurations.KafkaConfiguration;
+import com.example.worker.models.DeliveryOutcome;
+import com.example.worker.models.NotificationFanOutMessage;
+import com.example.worker.models.NotificationSendMessage;
+import com.example.worker.models.StoredSubscription;
+import com.example.worker.serialization.NotificationFanOutDeserializer;
+import com.example.worker.serialization.NotificationSendDeserializer;
+import com.example.worker.serialization.NotificationPayloadWriter;
+import com.example.worker.serialization.NotificationSendSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import jakarta.annotation.PostConstruct;
-import lombok.Getter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
 import nl.martijndwars.webpush.Notification;
-import nl.martijndwars.webpush.PushService;
-import nl.martijndwars.webpush.Subscription;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.jose4j.lang.JoseException;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.errors.SerializationException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
-import java.security.Security;
-import java.util.concurrent.ExecutionException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 
 /**
  * Service for processing and sending Web Push notifications from Kafka messages.
+ * Records are consumed as raw bytes and decoded by
+ * {@link NotificationSendDeserializer}, which reads both the binary and the
+ * JSON wire format, and fan-out records by {@link NotificationFanOutDeserializer},
+ * whose subscriber IDs are resolved against the {@link SubscriptionStore}.
+ * Records are consumed one at a time by default; with
+ * {@code worker.listener.batch.enabled=true} whole poll batches are consumed
+ * instead. Failed pushes are handed to {@link RetryRouter}, so the main
+ * partition never waits for a failing push service. Final outcomes of pushes
+ * that belong to a notification job are counted by {@link DeliveryReportService}.
  */
+@Slf4j
 @Service
 public class WebPushService {
 
-    private static final String WORKER_TOPIC = "worker_topic";
-    private static final String KAFKA_CONCURRENCY = "60";
+    public static final String RECORD_LISTENER_ID = "webPushRecordListener";
+    public static final String BATCH_LISTENER_ID = "webPushBatchListener";
+    public static final String RETRY_LISTENER_ID = "webPushRetryListener";
+
+    private static final String KAFKA_CONCURRENCY = "${worker.listener.concurrency:60}";
     private static final String NOTIFICATION_TITLE = "Новое уведомление";
-    private static final String TITLE_FIELD = "title";
-    private static final String BODY_FIELD = "body";
+    private static final long MAX_RETRY_PAUSE_MILLIS = 30_000;
 
-    private final ObjectMapper mapper;
+    private final NotificationSendDeserializer deserializer;
+    private final NotificationPayloadWriter payloadWriter;
+    private final PublicKeyCache publicKeyCache;
+    private final NotificationFanOutDeserializer fanOutDeserializer = new NotificationFanOutDeserializer();
+    private final NotificationSendSerializer sendSerializer = new NotificationSendSerializer();
+    private final SubscriptionStore subscriptionStore;
+    private final Counter unresolvedSubscribers;
+    private final PushDeliveryEngine deliveryEngine;
+    private final SubscriptionFeedbackService feedbackService;
+    private final RetryRouter retryRouter;
+    private final DeliveryReportService deliveryReports;
 
-    @Value("${key.private}")
-    private String privateKey;
+    @Value("${worker.listener.batch.parallelism:256}")
+    private int batchParallelism;
 
-    @Getter
-    @Value("${key.public}")
-    private String publicKey;
+    @Autowired
+    public WebPushService(
+            ObjectMapper mapper,
+            PushDeliveryEngine deliveryEngine,
+            SubscriptionFeedbackService feedbackService,
+            RetryRouter retryRouter,
+            SubscriptionStore subscriptionStore,
+            PublicKeyCache publicKeyCache,
+            DeliveryReportService deliveryReports,
+            MeterRegistry meterRegistry) {
+        this.deserializer = new NotificationSendDeserializer(mapper);
+        this.payloadWriter = new NotificationPayloadWriter(mapper.getFactory(), NOTIFICATION_TITLE);
+        this.publicKeyCache = publicKeyCache;
+        this.deliveryReports = deliveryReports;
+        this.deliveryEngine = deliveryEngine;
+        this.feedbackService = feedbackService;
+        this.retryRouter = retryRouter;
+        this.subscriptionStore = subscriptionStore;
+        this.unresolvedSubscribers = meterRegistry.counter("worker.fanout.unresolved");
+    }
 
-    private PushService pushService;
+    /**
+     * Listens to Kafka topic and hands Web Push notifications over to the
+     * asynchronous delivery engine. The record is acknowledged once the push
+     * service has answered and a failed push has been republished, so the
+     * listener thread never waits for the response. A record whose processing
+     * failed is dead-lettered and acknowledged as well; only a record that
+     * could not be republished at all is left unacknowledged, so it is
+     * redelivered once its partition is reassigned.
+     *
+     * @param record         the record containing encoded notification data
+     * @param acknowledgment the acknowledgment of the consumed record
+     */
+    @KafkaListener(
+            id = RECORD_LISTENER_ID,
+            idIsGroup = false,
+            topics = {KafkaConfiguration.WORKER_TOPIC},
+            concurrency = KAFKA_CONCURRENCY,
+            autoStartup = "#{!${worker.listener.batch.enabled:false}}",
+            properties = {KafkaConfiguration.BYTE_ARRAY_VALUE_DESERIALIZER})
+    public void sendNotification(ConsumerRecord<String, byte[]> record, Acknowledgment acknowledgment) {
+        settle(record).whenComplete((settled, error) -> {
+            if (error == null) {
+                acknowledgment.acknowledge();
+            } else {
+                log.error("Leaving record {}-{}@{} unacknowledged, it could not be dead-lettered",
+                        record.topic(), record.partition(), record.offset(), error);
+            }
+        });
+    }
 
-    @Autowired
-    public WebPushService(ObjectMapper mapper) {
-        this.mapper = mapper;
+    /**
+     * Listens to Kafka topic in batch mode. The whole poll batch is decoded and
+     * dispatched in one pass with at most {@code worker.listener.batch.parallelism}
+     * pushes in flight, and the offsets are committed once the last push of the
+     * batch has completed. A record whose processing failed is dead-lettered
+     * on its own, so the rest of the batch is not redelivered; the batch fails
+     * only if a record could not be dead-lettered either.
+     *
+     * @param batch the records of one poll
+     * @throws InterruptedException if interrupted while waiting for a send slot
+     */
+    @KafkaListener(
+            id = BATCH_LISTENER_ID,
+            idIsGroup = false,
+            topics = {KafkaConfiguration.WORKER_TOPIC},
+            concurrency = KAFKA_CONCURRENCY,
+            containerFactory = "batchKafkaListenerContainerFactory",
+            batch = "true",
+            autoStartup = "${worker.listener.batch.enabled:false}",
+            properties = {
+                    KafkaConfiguration.BYTE_ARRAY_VALUE_DESERIALIZER,
+                    "max.poll.records=${worker.listener.batch.max-records:500}",
+                    "fetch.max.wait.ms=${worker.listener.batch.max-wait-ms:500}",
+                    "fetch.min.bytes=${worker.listener.batch.min-bytes:65536}"
+            })
+    public void sendNotifications(List<ConsumerRecord<String, byte[]>> batch) throws InterruptedException {
+        Semaphore permits = new Semaphore(batchParallelism);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[batch.size()];
+        for (int i = 0; i < futures.length; i++) {
+            permits.acquire();
+            futures[i] = settle(batch.get(i)).whenComplete((result, error) -> permits.release());
+        }
+        CompletableFuture.allOf(futures).join();
     }
 
     /**
-     * Initializes the PushService with BouncyCastle provider.
+     * Listens to a retry tier topic, in the container registered for the tier
+     * by {@link com.example.worker.configurations.RetryListenerConfiguration}.
+     * A record that is not due yet is negatively acknowledged, which pauses the
+     * consumer and redelivers it later; a due record is pushed again and routed
+     * to the next tier or the dead-letter topic if it fails once more. A record
+     * that could not be routed is dead-lettered, and one that could not be
+     * dead-lettered either fails the listener, so it is redelivered.
      *
-     * @throws GeneralSecurityException if security initialization fails
+     * @param record         the record containing encoded notification data
+     * @param acknowledgment the acknowledgment of the consumed record
      */
-    @PostConstruct
-    private void init() throws GeneralSecurityException {
-        Security.addProvider(new BouncyCastleProvider());
-        pushService = new PushService(publicKey, privateKey);
+    public void retryNotification(ConsumerRecord<String, byte[]> record, Acknowledgment acknowledgment) {
+        long remaining = retryRouter.remainingDelayMillis(record);
+        if (remaining > 0) {
+            acknowledgment.nack(Duration.ofMillis(Math.min(remaining, MAX_RETRY_PAUSE_MILLIS)));
+            return;
+        }
+
+        settle(record).join();
+        acknowledgment.acknowledge();
     }
 
     /**
-     * Listens to Kafka topic and sends Web Push notifications.
+     * Processes the record, and dead-letters it if processing failed, so a
+     * record is always delivered, routed to a retry tier or dead-lettered.
      *
-     * @param data the JSON string containing notification data
-     * @throws IOException              if I/O error occurs
-     * @throws JoseException            if JOSE error occurs
-     * @throws GeneralSecurityException if security error occurs
-     * @throws ExecutionException       if execution error occurs
-     * @throws InterruptedException     if interrupted
+     * @return future completed once the record is settled, exceptionally only
+     * if it could not be dead-lettered either
+     */
+    private CompletableFuture<Void> settle(ConsumerRecord<String, byte[]> record) {
+        CompletableFuture<Void> processing;
+        try {
+            processing = process(record);
+        } catch (RuntimeException e) {
+            processing = CompletableFuture.failedFuture(e);
+        }
+        return processing.exceptionallyCompose(error -> {
+            log.error("Processing record {}-{}@{} failed", record.topic(), record.partition(), record.offset(), error);
+            return retryRouter.deadLetter(record, error.toString());
+        });
+    }
+
+    private CompletableFuture<Void> process(ConsumerRecord<String, byte[]> record) {
+        if (NotificationFanOutDeserializer.isFanOut(record.value())) {
+            return processFanOut(record);
+        }
+
+        NotificationSendMessage message;
+        byte[] payload;
+        try {
+            message = deserializer.deserialize(record.topic(), record.value());
+            payload = payloadWriter.write(message.getMessage());
+        } catch (SerializationException | IOException e) {
+            log.warn("Undecodable record at {}-{}@{}", record.topic(), record.partition(), record.offset(), e);
+            deliveryReports.record(record, DeliveryOutcome.FAILED);
+            return retryRouter.deadLetter(record, e.toString());
+        }
+        return push(record, message, payload, record::value);
+    }
+
+    /**
+     * Pushes the message of a fan-out record to every subscriber of its chunk
+     * that the subscription store knows. A failed push is retried on its own,
+     * as a single-subscriber record, so the rest of the chunk is not sent again.
      */
-    @KafkaListener(topics = {WORKER_TOPIC}, concurrency = KAFKA_CONCURRENCY)
-    public void sendNotification(String data)
-            throws IOException, JoseException, GeneralSecurityException, ExecutionException, InterruptedException {
-        NotificationSendDTO notificationDto = mapper.readValue(data, NotificationSendDTO.class);
+    private CompletableFuture<Void> processFanOut(ConsumerRecord<String, byte[]> record) {
+        NotificationFanOutMessage fanOut = null;
+        byte[] payload;
+        try {
+            fanOut = fanOutDeserializer.deserialize(record.topic(), record.value());
+            payload = payloadWriter.write(fanOut.getMessage());
+        } catch (SerializationException | IOException e) {
+            log.warn("Undecodable fan-out record at {}-{}@{}", record.topic(), record.partition(), record.offset(), e);
+            // Without its subscriber IDs the chunk can only be counted as a single failed push.
+            int subscribers = fanOut != null ? fanOut.getSubscriberIds().length : 1;
+            deliveryReports.record(record, DeliveryOutcome.FAILED, subscribers);
+            return retryRouter.deadLetter(record, e.toString());
+        }
 
-        ObjectNode payload = mapper.createObjectNode();
-        payload.put(TITLE_FIELD, NOTIFICATION_TITLE);
-        payload.put(BODY_FIELD, notificationDto.getMessage());
-        String jsonPayload = mapper.writeValueAsString(payload);
+        long[] subscriberIds = fanOut.getSubscriberIds();
+        List<CompletableFuture<Void>> pushes = new ArrayList<>(subscriberIds.length);
+        int unresolved = 0;
+        for (long subscriberId : subscriberIds) {
+            StoredSubscription subscription = subscriptionStore.get(subscriberId);
+            if (subscription == null) {
+                unresolved++;
+                continue;
+            }
+            NotificationSendMessage message = new NotificationSendMessage(subscriberId,
+                    subscription.getEndpoint(), subscription.getP256dh(), subscription.getAuth(), fanOut.getMessage());
+            pushes.add(push(record, message, payload, () -> sendSerializer.serialize(record.topic(), message)));
+        }
+        if (unresolved > 0) {
+            log.warn("{} of {} subscribers of fan-out record {}-{}@{} are not in the subscription store",
+                    unresolved, subscriberIds.length, record.topic(), record.partition(), record.offset());
+            unresolvedSubscribers.increment(unresolved);
+            deliveryReports.record(record, DeliveryOutcome.FAILED, unresolved);
+        }
+        return CompletableFuture.allOf(pushes.toArray(CompletableFuture[]::new));
+    }
 
-        Subscription subscription = mapper.readValue(
-                notificationDto.getSubscriptionJson(), Subscription.class);
-        Notification notification = new Notification(subscription, jsonPayload);
+    private CompletableFuture<Void> push(
+            ConsumerRecord<String, byte[]> record,
+            NotificationSendMessage message,
+            byte[] payload,
+            Supplier<byte[]> retryValue) {
+        Notification notification;
+        try {
+            notification = new Notification(
+                    message.getEndpoint(),
+                    publicKeyCache.get(message.getP256dh()),
+                    message.getAuth(),
+                    payload);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            log.warn("Invalid subscription of subscriber {}", message.getSubscriberId(), e);
+            deliveryReports.record(record, DeliveryOutcome.FAILED);
+            return retryRouter.deadLetter(record, retryValue.get(), e.toString());
+        }
 
-        pushService.send(notification);
+        return deliveryEngine.deliver(notification)
+                .handle((result, error) -> {
+                    if (error != null) {
+                        log.warn("Push to {} failed", notification.getEndpoint(), error);
+                    } else if (!result.isSuccessful()) {
+                        log.warn("Push to {} rejected with status {}", result.getEndpoint(), result.getStatusCode());
+                        feedbackService.report(message.getSubscriberId(), result);
+                    }
+                    return retryRouter.route(record, retryValue, result, error);
+                })
+                .thenCompose(routed -> routed)
+                .thenAccept(outcome -> deliveryReports.record(record, outcome));
     }
 }
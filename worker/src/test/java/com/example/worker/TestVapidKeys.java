@@ -0,0 +1,40 @@
+package com.example.worker;
+
+import nl.martijndwars.webpush.Base64Encoder;
+import nl.martijndwars.webpush.Utils;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.interfaces.ECPrivateKey;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.springframework.test.context.DynamicPropertyRegistry;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+
+/**
+ * Generates the VAPID key pair that the application context needs to start.
+ */
+public final class TestVapidKeys {
+
+    private TestVapidKeys() {
+    }
+
+    /**
+     * Adds a freshly generated key pair as {@code key.public} and {@code key.private}.
+     *
+     * @param properties the test's dynamic properties
+     * @throws GeneralSecurityException if the key pair cannot be generated
+     */
+    public static void register(DynamicPropertyRegistry properties) throws GeneralSecurityException {
+        Security.addProvider(new BouncyCastleProvider());
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("ECDH", BouncyCastleProvider.PROVIDER_NAME);
+        generator.initialize(ECNamedCurveTable.getParameterSpec("prime256v1"));
+        KeyPair keys = generator.generateKeyPair();
+        String publicKey = Base64Encoder.encodeUrlWithoutPadding(Utils.encode((ECPublicKey) keys.getPublic()));
+        String privateKey = Base64Encoder.encodeUrlWithoutPadding(Utils.encode((ECPrivateKey) keys.getPrivate()));
+        properties.add("key.public", () -> publicKey);
+        properties.add("key.private", () -> privateKey);
+    }
+}
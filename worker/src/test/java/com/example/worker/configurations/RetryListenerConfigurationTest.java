@@ -0,0 +1,45 @@
+package com.example.worker.configurations;
+
+import com.example.worker.TestVapidKeys;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.security.GeneralSecurityException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.kafka.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.consumer.group-id=worker",
+        "kafka.topics.worker.partitions=1",
+        "worker.listener.concurrency=1",
+        "worker.retry.delays=10s,1m"})
+@EmbeddedKafka
+class RetryListenerConfigurationTest {
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    @DynamicPropertySource
+    static void vapidKeys(DynamicPropertyRegistry properties) throws GeneralSecurityException {
+        TestVapidKeys.register(properties);
+    }
+
+    @Test
+    void registersOneContainerPerRetryTier() {
+        for (int tier = 0; tier < 2; tier++) {
+            MessageListenerContainer container = registry.getListenerContainer(RetryListenerConfiguration.listenerId(tier));
+
+            assertThat(container).isNotNull();
+            assertThat(container.getContainerProperties().getTopics())
+                    .containsExactly(KafkaConfiguration.retryTopic(tier));
+        }
+        assertThat(registry.getListenerContainer(RetryListenerConfiguration.listenerId(2))).isNull();
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.worker.serialization;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NotificationPayloadWriterTest {
+
+    private static final String TITLE = "Новое уведомление";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final NotificationPayloadWriter writer = new NotificationPayloadWriter(mapper.getFactory(), TITLE);
+
+    static Stream<String> messages() {
+        return Stream.of(
+                "",
+                "Hello, world",
+                "Привет, мир",
+                "quotes \" and backslashes \\ and slashes /",
+                "line\nbreak\ttab\rreturn\u0000nul\u001fcontrol",
+                "emoji 🔔 and   separators  ",
+                "x".repeat(10_000));
+    }
+
+    @ParameterizedTest
+    @MethodSource("messages")
+    void writesSameBytesAsObjectNode(String message) throws IOException {
+        assertThat(writer.write(message)).isEqualTo(objectNodePayload(message));
+    }
+
+    @ParameterizedTest
+    @MethodSource("messages")
+    void reusedBuffersDoNotLeakPreviousPayload(String message) throws IOException {
+        writer.write("x".repeat(5_000));
+
+        assertThat(writer.write(message)).isEqualTo(objectNodePayload(message));
+    }
+
+    private byte[] objectNodePayload(String message) throws IOException {
+        ObjectNode payload = mapper.createObjectNode();
+        payload.put("title", TITLE);
+        payload.put("body", message);
+        return mapper.writeValueAsBytes(payload);
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.worker.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(2, Duration.ofMinutes(1));
+
+        breaker.recordFailure(breaker.tryAcquire(), null);
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.Permit.REQUEST);
+        breaker.recordFailure(CircuitBreaker.Permit.REQUEST, null);
+
+        assertThat(breaker.tryAcquire()).isNull();
+        assertThat(breaker.remainingOpen()).isPositive();
+    }
+
+    @Test
+    void grantsASingleProbeOnceTheOpenPeriodHasPassed() {
+        CircuitBreaker breaker = halfOpen();
+
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.Permit.PROBE);
+        assertThat(breaker.tryAcquire()).isNull();
+    }
+
+    @Test
+    void keepsTheProbeWhenARequestGrantedBeforeOpeningCompletes() {
+        CircuitBreaker breaker = halfOpen();
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.Permit.PROBE);
+
+        breaker.recordIgnored(CircuitBreaker.Permit.REQUEST);
+
+        assertThat(breaker.tryAcquire()).isNull();
+    }
+
+    @Test
+    void freesTheProbeWhenTheProbeIsNotSent() {
+        CircuitBreaker breaker = halfOpen();
+        CircuitBreaker.Permit probe = breaker.tryAcquire();
+
+        breaker.recordIgnored(probe);
+
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.Permit.PROBE);
+    }
+
+    @Test
+    void reopensWhenTheProbeFails() {
+        CircuitBreaker breaker = halfOpen();
+
+        breaker.recordFailure(breaker.tryAcquire(), null);
+
+        assertThat(breaker.isOpen()).isTrue();
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.Permit.PROBE);
+    }
+
+    @Test
+    void closesWhenTheProbeSucceeds() {
+        CircuitBreaker breaker = halfOpen();
+
+        breaker.recordSuccess(breaker.tryAcquire());
+
+        assertThat(breaker.isOpen()).isFalse();
+        assertThat(breaker.tryAcquire()).isEqualTo(CircuitBreaker.Permit.REQUEST);
+    }
+
+    /**
+     * @return a breaker whose circuit was opened by a single failure and is due for a probe
+     */
+    private static CircuitBreaker halfOpen() {
+        CircuitBreaker breaker = new CircuitBreaker(1, Duration.ZERO);
+        breaker.recordFailure(breaker.tryAcquire(), null);
+        return breaker;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.worker.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.martijndwars.webpush.Encoding;
+import nl.martijndwars.webpush.HttpEce;
+import nl.martijndwars.webpush.Utils;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Checks {@link JdkPayloadCipher} output against the web-push library's own
+ * RFC 8291 decoder.
+ */
+class JdkPayloadCipherTest {
+
+    private static final String UA_KEY_ID = "ua";
+    private static final int HEADER_LENGTH = 16 + 4 + 1 + 65;
+    private static final byte[] PAYLOAD =
+            "{\"title\":\"Notification\",\"body\":\"Hello, world\"}".getBytes(StandardCharsets.UTF_8);
+
+    private EphemeralKeyPool keyPool;
+    private JdkPayloadCipher cipher;
+    private KeyPair userKeys;
+    private byte[] userAuth;
+
+    @BeforeAll
+    static void installBouncyCastle() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        keyPool = keyPool("jdk");
+        cipher = new JdkPayloadCipher(keyPool);
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("ECDH", BouncyCastleProvider.PROVIDER_NAME);
+        generator.initialize(ECNamedCurveTable.getParameterSpec("prime256v1"));
+        userKeys = generator.generateKeyPair();
+        userAuth = new byte[16];
+        new SecureRandom().nextBytes(userAuth);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(keyPool, "shutdown");
+    }
+
+    @Test
+    void writesAes128gcmHeader() throws Exception {
+        byte[] body = cipher.encrypt(PAYLOAD, userKeys.getPublic(), userAuth);
+
+        ByteBuffer header = ByteBuffer.wrap(body);
+        header.position(16);
+        assertThat(header.getInt()).isEqualTo(4096);
+        assertThat(header.get()).isEqualTo((byte) 65);
+        assertThat(header.get()).isEqualTo((byte) 4);
+        assertThat(body).hasSize(HEADER_LENGTH + PAYLOAD.length + 1 + 16);
+    }
+
+    @Test
+    void usesFreshSaltAndSenderKeyForEveryPayload() throws Exception {
+        byte[] first = cipher.encrypt(PAYLOAD, userKeys.getPublic(), userAuth);
+        byte[] second = cipher.encrypt(PAYLOAD, userKeys.getPublic(), userAuth);
+
+        assertThat(Arrays.copyOfRange(first, 0, 16)).isNotEqualTo(Arrays.copyOfRange(second, 0, 16));
+        assertThat(Arrays.copyOfRange(first, 21, HEADER_LENGTH))
+                .isNotEqualTo(Arrays.copyOfRange(second, 21, HEADER_LENGTH));
+    }
+
+    @Test
+    void decryptsWithHttpEce() throws Exception {
+        byte[] body = cipher.encrypt(PAYLOAD, userKeys.getPublic(), userAuth);
+
+        Record record = decrypt(body);
+
+        assertThat(record.plaintext()).isEqualTo(PAYLOAD);
+    }
+
+    @Test
+    void endsSingleRecordWithLastRecordDelimiter() throws Exception {
+        byte[] body = cipher.encrypt(PAYLOAD, userKeys.getPublic(), userAuth);
+
+        Record record = decrypt(body);
+        Cipher gcm = Cipher.getInstance("AES/GCM/NoPadding");
+        gcm.init(Cipher.DECRYPT_MODE, new SecretKeySpec(record.key(), "AES"), new GCMParameterSpec(128, record.nonce()));
+        byte[] padded = gcm.doFinal(body, HEADER_LENGTH, body.length - HEADER_LENGTH);
+
+        assertThat(padded).hasSize(PAYLOAD.length + 1);
+        assertThat(padded[PAYLOAD.length]).isEqualTo((byte) 2);
+    }
+
+    @Test
+    void decryptsLikeBouncyCastleCipher() throws Exception {
+        EphemeralKeyPool bouncyCastlePool = keyPool("bouncycastle");
+        try {
+            byte[] body = new BouncyCastlePayloadCipher(bouncyCastlePool)
+                    .encrypt(PAYLOAD, userKeys.getPublic(), userAuth);
+
+            assertThat(decrypt(body).plaintext()).isEqualTo(PAYLOAD);
+        } finally {
+            ReflectionTestUtils.invokeMethod(bouncyCastlePool, "shutdown");
+        }
+    }
+
+    @Test
+    void rejectsPayloadLargerThanOneRecord() {
+        byte[] payload = new byte[4096 - 16];
+
+        assertThatThrownBy(() -> cipher.encrypt(payload, userKeys.getPublic(), userAuth))
+                .isInstanceOf(GeneralSecurityException.class);
+    }
+
+    /**
+     * Decrypts with the library's key schedule. {@code HttpEce.decrypt} cannot
+     * derive the receiver's secret itself, since it takes the remote key from
+     * its own key map, so the map pairs the sender's public key with the
+     * receiver's private key.
+     */
+    private Record decrypt(byte[] body) throws Exception {
+        HttpEce reader = new HttpEce();
+        byte[][] header = reader.parseHeader(body);
+        byte[] salt = header[0];
+        ECPublicKey senderKey = (ECPublicKey) Utils.loadPublicKey(header[2]);
+
+        HttpEce receiver = new HttpEce(
+                Map.of(UA_KEY_ID, new KeyPair(senderKey, userKeys.getPrivate())),
+                Map.of(UA_KEY_ID, "P-256"));
+        byte[][] keyAndNonce = receiver.deriveKeyAndNonce(
+                salt, null, UA_KEY_ID, (ECPublicKey) userKeys.getPublic(), userAuth, Encoding.AES128GCM, 2);
+        byte[] plaintext = receiver.decryptRecord(header[3], keyAndNonce[0], keyAndNonce[1], Encoding.AES128GCM);
+        return new Record(keyAndNonce[0], keyAndNonce[1], plaintext);
+    }
+
+    private static EphemeralKeyPool keyPool(String provider) {
+        EphemeralKeyPool pool = new EphemeralKeyPool(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(pool, "cryptoProvider", provider);
+        ReflectionTestUtils.setField(pool, "capacity", 4);
+        ReflectionTestUtils.setField(pool, "refillThreshold", 0.75);
+        ReflectionTestUtils.invokeMethod(pool, "init");
+        return pool;
+    }
+
+    private record Record(byte[] key, byte[] nonce, byte[] plaintext) {
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.worker.services;
+
+import com.example.worker.models.StoredSubscription;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MappedSubscriptionStoreTest {
+
+    @TempDir
+    private Path directory;
+
+    private final List<MappedSubscriptionStore> opened = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        opened.forEach(MappedSubscriptionStoreTest::close);
+    }
+
+    @Test
+    void keepsSubscriptionsAcrossReopen() {
+        MappedSubscriptionStore store = open();
+        store.put(1, subscription(1));
+        store.put(2, subscription(2));
+        store.remove(2);
+        store.markApplied(0, 41);
+        close(store);
+        opened.remove(store);
+
+        MappedSubscriptionStore reopened = open();
+
+        assertThat(reopened.size()).isEqualTo(1);
+        assertThat(reopened.get(1).getEndpoint()).isEqualTo(subscription(1).getEndpoint());
+        assertThat(reopened.get(2)).isNull();
+        assertThat(reopened.appliedOffset(0)).isEqualTo(41);
+    }
+
+    @Test
+    void growsBeyondInitialCapacity() {
+        MappedSubscriptionStore store = open();
+
+        for (long id = 0; id < 5000; id++) {
+            store.put(id, subscription(id));
+        }
+
+        assertThat(store.size()).isEqualTo(5000);
+        for (long id = 0; id < 5000; id++) {
+            assertThat(store.get(id).getEndpoint()).isEqualTo(subscription(id).getEndpoint());
+        }
+    }
+
+    @Test
+    void readsWhileIndexGrows() throws InterruptedException {
+        MappedSubscriptionStore store = open();
+        store.put(0, subscription(0));
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread reader = new Thread(() -> {
+            try {
+                while (done.getCount() > 0) {
+                    assertThat(store.get(0)).isNotNull();
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+
+        for (long id = 1; id < 5000; id++) {
+            store.put(id, subscription(id));
+        }
+        done.countDown();
+        reader.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertThat(failure.get()).isNull();
+        assertThat(store.size()).isEqualTo(5000);
+    }
+
+    @Test
+    void refusesDirectoryThatIsAlreadyOpen() {
+        open();
+
+        assertThatThrownBy(this::open)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("already open");
+    }
+
+    private MappedSubscriptionStore open() {
+        MappedSubscriptionStore store = new MappedSubscriptionStore();
+        ReflectionTestUtils.setField(store, "directory", directory);
+        ReflectionTestUtils.setField(store, "initialCapacity", 16L);
+        ReflectionTestUtils.setField(store, "segmentSize", DataSize.ofKilobytes(128));
+        ReflectionTestUtils.invokeMethod(store, "open");
+        opened.add(store);
+        return store;
+    }
+
+    private static void close(MappedSubscriptionStore store) {
+        ReflectionTestUtils.invokeMethod(store, "close");
+    }
+
+    private static StoredSubscription subscription(long id) {
+        return new StoredSubscription("https://push.example/" + id, new byte[65], new byte[16]);
+    }
+}
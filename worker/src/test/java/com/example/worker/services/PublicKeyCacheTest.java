@@ -0,0 +1,72 @@
+package com.example.worker.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.martijndwars.webpush.Utils;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PublicKeyCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private PublicKeyCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new PublicKeyCache(meterRegistry);
+        ReflectionTestUtils.setField(cache, "capacity", 2);
+    }
+
+    @Test
+    void returnsCachedKeyOnHit() throws GeneralSecurityException {
+        byte[] p256dh = newPoint();
+
+        PublicKey first = cache.get(p256dh);
+        PublicKey second = cache.get(p256dh.clone());
+
+        assertThat(second).isSameAs(first);
+        assertThat(first).isEqualTo(Utils.loadPublicKey(p256dh));
+        assertThat(counter("hits")).isEqualTo(1);
+        assertThat(counter("misses")).isEqualTo(1);
+    }
+
+    @Test
+    void evictsAtCapacity() throws GeneralSecurityException {
+        for (int i = 0; i < 5; i++) {
+            cache.get(newPoint());
+        }
+
+        assertThat(meterRegistry.get("worker.crypto.public_key_cache.size").gauge().value()).isEqualTo(2);
+        assertThat(counter("misses")).isEqualTo(5);
+    }
+
+    @Test
+    void rejectsPointNotOnCurve() {
+        byte[] p256dh = new byte[65];
+        p256dh[0] = 4;
+
+        assertThatThrownBy(() -> cache.get(p256dh)).isInstanceOf(Exception.class);
+        assertThat(meterRegistry.get("worker.crypto.public_key_cache.size").gauge().value()).isZero();
+    }
+
+    private double counter(String name) {
+        return meterRegistry.get("worker.crypto.public_key_cache." + name).counter().count();
+    }
+
+    private static byte[] newPoint() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("ECDH", BouncyCastleProvider.PROVIDER_NAME);
+        generator.initialize(ECNamedCurveTable.getParameterSpec("prime256v1"));
+        return Utils.encode((ECPublicKey) generator.generateKeyPair().getPublic());
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.worker.services;
+
+import com.example.worker.configurations.KafkaConfiguration;
+import com.example.worker.exceptions.PushServiceUnavailable;
+import com.example.worker.models.DeliveryOutcome;
+import com.example.worker.models.PushResult;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.NetworkException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.mock.MockProducerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RetryRouterTest {
+
+    private static final List<Duration> DELAYS = List.of(Duration.ofSeconds(10), Duration.ofMinutes(1));
+
+    private MockProducer<String, byte[]> producer;
+    private RetryRouter router;
+    private int failingSends;
+
+    @BeforeEach
+    void setUp() {
+        producer = new MockProducer<>(true, null, new StringSerializer(), new ByteArraySerializer()) {
+            @Override
+            public synchronized Future<RecordMetadata> send(ProducerRecord<String, byte[]> record, Callback callback) {
+                if (failingSends > 0) {
+                    failingSends--;
+                    NetworkException disconnected = new NetworkException("broker disconnected");
+                    callback.onCompletion(null, disconnected);
+                    return CompletableFuture.failedFuture(disconnected);
+                }
+                return super.send(record, callback);
+            }
+
+            @Override
+            public void close(Duration timeout) {
+                // KafkaTemplate closes the producer after every send, and the factory hands out this one.
+            }
+        };
+        ProducerFactory<String, byte[]> producerFactory = new MockProducerFactory<>(() -> producer) {
+            @Override
+            public ProducerFactory<String, byte[]> copyWithConfigurationOverride(Map<String, Object> overrides) {
+                return this;
+            }
+        };
+        router = new RetryRouter(producerFactory, DELAYS);
+        ReflectionTestUtils.setField(router, "sendAttempts", 3);
+        ReflectionTestUtils.setField(router, "sendBackoff", Duration.ofMillis(1));
+    }
+
+    @Test
+    void retriesServerErrorOnNextAttempt() {
+        DeliveryOutcome outcome = router.route(record(0), new PushResult("endpoint", 503, null), null).join();
+
+        ProducerRecord<String, byte[]> retry = producer.history().get(0);
+        assertThat(outcome).isEqualTo(DeliveryOutcome.RETRYING);
+        assertThat(retry.topic()).isEqualTo(KafkaConfiguration.retryTopic(0));
+        assertThat(attempt(retry)).isEqualTo(1);
+    }
+
+    @Test
+    void retriesOpenCircuitWithoutUsingUpAttempt() {
+        PushServiceUnavailable unavailable = new PushServiceUnavailable("push.example", Duration.ofSeconds(5));
+
+        router.route(record(1), null, unavailable).join();
+
+        ProducerRecord<String, byte[]> retry = producer.history().get(0);
+        assertThat(retry.topic()).isEqualTo(KafkaConfiguration.retryTopic(1));
+        assertThat(attempt(retry)).isEqualTo(1);
+    }
+
+    @Test
+    void retriesOpenCircuitAfterRetriesAreExhausted() {
+        PushServiceUnavailable unavailable = new PushServiceUnavailable("push.example", Duration.ofSeconds(5));
+
+        router.route(record(DELAYS.size() - 1), null, unavailable).join();
+        ProducerRecord<String, byte[]> retry = producer.history().get(0);
+
+        assertThat(attempt(retry)).isEqualTo(DELAYS.size() - 1);
+    }
+
+    @Test
+    void deadLettersExhaustedRetries() {
+        DeliveryOutcome outcome = router.route(
+                record(DELAYS.size()), new PushResult("endpoint", 503, null), null).join();
+
+        assertThat(outcome).isEqualTo(DeliveryOutcome.FAILED);
+        assertThat(producer.history().get(0).topic()).isEqualTo(KafkaConfiguration.DEAD_LETTER_TOPIC);
+    }
+
+    @Test
+    void clampsRetryAfterToTheDelayOfTheLastTier() {
+        long routedAt = System.currentTimeMillis();
+
+        router.route(record(0), new PushResult("endpoint", 429, Duration.ofHours(1)), null).join();
+
+        ProducerRecord<String, byte[]> retry = producer.history().get(0);
+        long notBefore = ByteBuffer.wrap(retry.headers().lastHeader(RetryRouter.NOT_BEFORE_HEADER).value()).getLong();
+        assertThat(retry.topic()).isEqualTo(KafkaConfiguration.retryTopic(DELAYS.size() - 1));
+        assertThat(notBefore - routedAt).isBetween(
+                DELAYS.get(DELAYS.size() - 1).toMillis(), DELAYS.get(DELAYS.size() - 1).toMillis() + 5_000);
+    }
+
+    @Test
+    void sendsAFailedRepublishAgain() {
+        failingSends = 2;
+
+        DeliveryOutcome outcome = router.route(record(0), new PushResult("endpoint", 503, null), null).join();
+
+        assertThat(outcome).isEqualTo(DeliveryOutcome.RETRYING);
+        assertThat(producer.history()).hasSize(1);
+    }
+
+    @Test
+    void failsWhenTheRepublishKeepsFailing() {
+        failingSends = 3;
+
+        CompletableFuture<DeliveryOutcome> routed =
+                router.route(record(0), new PushResult("endpoint", 503, null), null);
+
+        assertThatThrownBy(routed::join).hasRootCauseInstanceOf(NetworkException.class);
+        assertThat(producer.history()).isEmpty();
+    }
+
+    private static ConsumerRecord<String, byte[]> record(int attempt) {
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(
+                KafkaConfiguration.retryTopic(Math.max(attempt - 1, 0)), 0, 42, "key", new byte[]{1});
+        if (attempt > 0) {
+            record.headers().add(RetryRouter.ATTEMPT_HEADER, ByteBuffer.allocate(Integer.BYTES).putInt(attempt).array());
+        }
+        return record;
+    }
+
+    private static int attempt(ProducerRecord<String, byte[]> record) {
+        return ByteBuffer.wrap(record.headers().lastHeader(RetryRouter.ATTEMPT_HEADER).value()).getInt();
+    }
+}
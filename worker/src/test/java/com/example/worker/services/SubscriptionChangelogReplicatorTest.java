@@ -0,0 +1,121 @@
+package com.example.worker.services;
+
+import com.example.worker.TestVapidKeys;
+import com.example.worker.configurations.KafkaConfiguration;
+import com.example.worker.models.StoredSubscription;
+import com.example.worker.serialization.SubscriptionChangelogDeserializer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@SpringBootTest(properties = {
+        "spring.kafka.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        "spring.kafka.consumer.group-id=worker",
+        "kafka.topics.worker.partitions=1",
+        "kafka.topics.changelog.partitions=2",
+        "worker.listener.concurrency=1",
+        "worker.changelog.enabled=true"})
+@EmbeddedKafka(topics = KafkaConfiguration.SUBSCRIPTIONS_CHANGELOG_TOPIC, partitions = 3)
+class SubscriptionChangelogReplicatorTest {
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    @Autowired
+    private SubscriptionStore subscriptionStore;
+
+    @Autowired
+    private EmbeddedKafkaBroker broker;
+
+    @DynamicPropertySource
+    static void vapidKeys(DynamicPropertyRegistry properties) throws GeneralSecurityException {
+        TestVapidKeys.register(properties);
+    }
+
+    @Test
+    void listensToEveryPartitionOfTheTopic() {
+        MessageListenerContainer container =
+                registry.getListenerContainer(SubscriptionChangelogReplicator.CHANGELOG_LISTENER_ID);
+
+        assertThat(container).isNotNull();
+        assertThat(container.isRunning()).isTrue();
+        assertThat(container.getContainerProperties().getTopicPartitions())
+                .extracting(partition -> new TopicPartition(partition.getTopic(), partition.getPartition()))
+                .containsExactlyInAnyOrderElementsOf(IntStream.range(0, 3)
+                        .mapToObj(partition -> new TopicPartition(KafkaConfiguration.SUBSCRIPTIONS_CHANGELOG_TOPIC, partition))
+                        .toList());
+    }
+
+    @Test
+    void appliesRecordsOfPartitionsBeyondTheConfiguredCount() throws InterruptedException {
+        try (KafkaProducer<String, byte[]> producer = new KafkaProducer<>(
+                KafkaTestUtils.producerProps(broker), new StringSerializer(), new ByteArraySerializer())) {
+            producer.send(new ProducerRecord<>(
+                    KafkaConfiguration.SUBSCRIPTIONS_CHANGELOG_TOPIC, 2, "7", record("https://push.example/7")));
+        }
+
+        StoredSubscription subscription = null;
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (subscription == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            subscription = subscriptionStore.get(7);
+        }
+
+        assertThat(subscription).isNotNull();
+        assertThat(subscription.getEndpoint()).isEqualTo("https://push.example/7");
+    }
+
+    @Test
+    void failsStartWhenBootstrapFails() {
+        ConsumerFactory<String, byte[]> consumerFactory = mock();
+        when(consumerFactory.createConsumer(any(), any(), any(), any())).thenThrow(new KafkaException("unreachable"));
+        SubscriptionChangelogReplicator replicator = new SubscriptionChangelogReplicator(
+                new InMemorySubscriptionStore(), consumerFactory, new KafkaListenerEndpointRegistry(),
+                mock(), mock(), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(replicator, "enabled", true);
+
+        assertThatThrownBy(replicator::start).isInstanceOf(IllegalStateException.class);
+        assertThat(replicator.isRunning()).isFalse();
+    }
+
+    private static byte[] record(String endpoint) {
+        byte[] endpointBytes = endpoint.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(2 + 2 + endpointBytes.length + 1 + 65 + 1 + 16)
+                .put(SubscriptionChangelogDeserializer.MAGIC)
+                .put(SubscriptionChangelogDeserializer.VERSION)
+                .putShort((short) endpointBytes.length)
+                .put(endpointBytes)
+                .put((byte) 65)
+                .put(new byte[65])
+                .put((byte) 16)
+                .put(new byte[16])
+                .array();
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.worker.services;
+
+import com.example.worker.configurations.KafkaConfiguration;
+import com.example.worker.models.DeliveryOutcome;
+import com.example.worker.models.NotificationSendMessage;
+import com.example.worker.serialization.NotificationFanOutDeserializer;
+import com.example.worker.serialization.NotificationSendSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.martijndwars.webpush.Utils;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WebPushServiceTest {
+
+    private PushDeliveryEngine deliveryEngine;
+    private RetryRouter retryRouter;
+    private DeliveryReportService deliveryReports;
+    private WebPushService service;
+    private byte[] p256dh;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws GeneralSecurityException {
+        deliveryEngine = mock(PushDeliveryEngine.class);
+        retryRouter = mock(RetryRouter.class);
+        deliveryReports = mock(DeliveryReportService.class);
+        service = new WebPushService(
+                new ObjectMapper(),
+                deliveryEngine,
+                mock(SubscriptionFeedbackService.class),
+                retryRouter,
+                mock(SubscriptionStore.class),
+                new PublicKeyCache(new SimpleMeterRegistry()),
+                deliveryReports,
+                new SimpleMeterRegistry());
+        p256dh = newPoint();
+
+        when(deliveryEngine.deliver(any())).thenReturn(CompletableFuture.failedFuture(new IOException("reset")));
+        when(retryRouter.route(any(), any(Supplier.class), any(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new KafkaException("retry topic unavailable")));
+    }
+
+    @Test
+    void deadLettersAndAcknowledgesARecordThatCouldNotBeRouted() {
+        when(retryRouter.deadLetter(any(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+        ConsumerRecord<String, byte[]> record = record();
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+
+        service.sendNotification(record, acknowledgment);
+
+        verify(retryRouter).deadLetter(eq(record), anyString());
+        verify(acknowledgment).acknowledge();
+    }
+
+    @Test
+    void leavesARecordThatCouldNotBeDeadLetteredUnacknowledged() {
+        when(retryRouter.deadLetter(any(), anyString()))
+                .thenReturn(CompletableFuture.failedFuture(new KafkaException("dead-letter topic unavailable")));
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+
+        service.sendNotification(record(), acknowledgment);
+
+        verify(acknowledgment, never()).acknowledge();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void deadLettersOnlyTheFailedRecordsOfABatch() throws InterruptedException {
+        ReflectionTestUtils.setField(service, "batchParallelism", 2);
+        ConsumerRecord<String, byte[]> routed = record(0);
+        ConsumerRecord<String, byte[]> failed = record(1);
+        when(retryRouter.route(eq(routed), any(Supplier.class), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(DeliveryOutcome.RETRYING));
+        when(retryRouter.deadLetter(any(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+
+        service.sendNotifications(List.of(routed, failed));
+
+        verify(retryRouter).deadLetter(eq(failed), anyString());
+        verify(retryRouter, never()).deadLetter(eq(routed), anyString());
+    }
+
+    @Test
+    void countsAnUndecodableFanOutRecordAsFailed() {
+        when(retryRouter.deadLetter(any(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+        byte[] truncated = {NotificationFanOutDeserializer.MAGIC, NotificationFanOutDeserializer.VERSION, 0, 0, 0, 5};
+        ConsumerRecord<String, byte[]> record =
+                new ConsumerRecord<>(KafkaConfiguration.WORKER_TOPIC, 0, 0, null, truncated);
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+
+        service.sendNotification(record, acknowledgment);
+
+        verify(deliveryReports).record(record, DeliveryOutcome.FAILED, 1);
+        verify(retryRouter).deadLetter(eq(record), anyString());
+        verify(acknowledgment).acknowledge();
+    }
+
+    private ConsumerRecord<String, byte[]> record() {
+        return record(0);
+    }
+
+    private ConsumerRecord<String, byte[]> record(long offset) {
+        NotificationSendMessage message = new NotificationSendMessage(
+                1L, "https://push.example/a", p256dh, new byte[16], "message");
+        byte[] value = new NotificationSendSerializer().serialize(KafkaConfiguration.WORKER_TOPIC, message);
+        return new ConsumerRecord<>(KafkaConfiguration.WORKER_TOPIC, 0, offset, null, value);
+    }
+
+    private static byte[] newPoint() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("ECDH", BouncyCastleProvider.PROVIDER_NAME);
+        generator.initialize(ECNamedCurveTable.getParameterSpec("prime256v1"));
+        return Utils.encode((ECPublicKey) generator.generateKeyPair().getPublic());
+    }
+}